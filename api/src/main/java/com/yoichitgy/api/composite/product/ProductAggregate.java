@@ -16,4 +16,19 @@ public class ProductAggregate {
     private List<RecommendationSummary> recommendations;
     private List<ReviewSummary> reviews;
     private ServiceAddresses serviceAddresses;
+    private boolean stale;
+    private List<String> incompleteSections;
+    private String recommendationsNextPageToken;
+    private String reviewsNextPageToken;
+
+    public ProductAggregate(
+        int productId,
+        String name,
+        int weight,
+        List<RecommendationSummary> recommendations,
+        List<ReviewSummary> reviews,
+        ServiceAddresses serviceAddresses
+    ) {
+        this(productId, name, weight, recommendations, reviews, serviceAddresses, false, List.of(), null, null);
+    }
 }
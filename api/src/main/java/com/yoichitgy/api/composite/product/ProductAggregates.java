@@ -0,0 +1,15 @@
+package com.yoichitgy.api.composite.product;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+
+@Value
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+public class ProductAggregates {
+    private final List<ProductAggregate> products;
+    private final List<Integer> notFound;
+}
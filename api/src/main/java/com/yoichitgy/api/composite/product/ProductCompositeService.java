@@ -1,5 +1,7 @@
 package com.yoichitgy.api.composite.product;
 
+import java.util.List;
+
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -16,6 +18,7 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @SecurityRequirement(name = "security_auth")
@@ -41,9 +44,32 @@ public interface ProductCompositeService {
     Mono<Void> createProduct(@RequestBody ProductAggregate body);
 
     /**
-     * Sample usage: "curl $HOST:$PORT/product-composite/1".
+     * Sample usage, see below.
+     *
+     * curl -X POST $HOST:$PORT/product-composite/bulk \
+     *   -H "Content-Type: application/x-ndjson" --data-binary @products.ndjson
+     *
+     * @param body One JSON composite product per line
+     * @return one result per non-empty line, streamed as the lines are processed
+     */
+    @Operation(
+        summary = "${api.product-composite.bulk-create-composite-products.description}",
+        description = "${api.product-composite.bulk-create-composite-products.notes}"
+    )
+    @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}")
+    @PostMapping(
+        value = "/product-composite/bulk",
+        consumes = MediaType.APPLICATION_NDJSON_VALUE,
+        produces = MediaType.APPLICATION_NDJSON_VALUE
+    )
+    Flux<ProductIngestResult> createProducts(@RequestBody Flux<String> body);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/product-composite/1?fields=product,reviews".
      *
      * @param productId Id of the product
+     * @param fields Sections to return, any of product, recommendations and reviews, all sections if not specified
+     * @param pageToken Token of the next page of recommendations or reviews, only that section is returned
      * @return the composite product info, if found, else null
      */
     @Operation(
@@ -59,7 +85,28 @@ public interface ProductCompositeService {
         @RequestHeader HttpHeaders headers,
         @PathVariable int productId,
         @RequestParam(value = "delay", required = false, defaultValue = "0") int delay,
-        @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent
+        @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent,
+        @RequestParam(value = "fields", required = false) List<String> fields,
+        @RequestParam(value = "pageToken", required = false) String pageToken
+    );
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/product-composite?productIds=1,2,3".
+     *
+     * @param productIds Ids of the products
+     * @return the composite product info of the products found, and the ids of the products not found
+     */
+    @Operation(
+        summary = "${api.product-composite.get-composite-products.description}",
+        description = "${api.product-composite.get-composite-products.notes}"
+    )
+    @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}")
+    @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}")
+    @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
+    @GetMapping(value = "/product-composite", produces = MediaType.APPLICATION_JSON_VALUE)
+    Mono<ProductAggregates> getProducts(
+        @RequestHeader HttpHeaders headers,
+        @RequestParam(value = "productIds", required = true) List<Integer> productIds
     );
 
     /**
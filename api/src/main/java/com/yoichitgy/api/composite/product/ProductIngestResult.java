@@ -0,0 +1,22 @@
+package com.yoichitgy.api.composite.product;
+
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+
+@Value
+@AllArgsConstructor
+@NoArgsConstructor(force = true)
+public class ProductIngestResult {
+    public enum Status {
+        ACCEPTED,
+        REJECTED,
+        FAILED
+    }
+
+    // 1-based line number in the ingested body
+    private final long line;
+    private final Integer productId;
+    private final Status status;
+    private final String message;
+}
@@ -1,5 +1,7 @@
 package com.yoichitgy.api.core.product;
 
+import java.util.List;
+
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -7,11 +9,20 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface ProductService {
     Mono<Product> createProduct(Product body);
 
+    /**
+     * Creates the products with one bulk write. If a product already exists, the call fails and
+     * the products before it may have been created.
+     *
+     * @return the created products
+     */
+    Flux<Product> createProducts(List<Product> body);
+
     /**
      * Sample usage: "curl $HOST:$PORT/product/1".
      *
@@ -26,5 +37,17 @@ public interface ProductService {
         @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent
     );
 
+    /**
+     * Sample usage: "curl $HOST:$PORT/product?productIds=1,2,3".
+     *
+     * @param productIds Ids of the products
+     * @return the products found, ordered by productId
+     */
+    @GetMapping(value = "/product", produces = MediaType.APPLICATION_JSON_VALUE)
+    Flux<Product> getProducts(
+        @RequestHeader HttpHeaders headers,
+        @RequestParam(value = "productIds", required = true) List<Integer> productIds
+    );
+
     Mono<Void> deleteProduct(int productId);
 }
@@ -1,5 +1,7 @@
 package com.yoichitgy.api.core.recommendation;
 
+import java.util.List;
+
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -12,6 +14,14 @@ import reactor.core.publisher.Mono;
 public interface RecommendationService {
     Mono<Recommendation> createRecommendation(Recommendation body);
 
+    /**
+     * Creates the recommendations with one bulk write. If a recommendation already exists, the call fails and
+     * the recommendations before it may have been created.
+     *
+     * @return the created recommendations
+     */
+    Flux<Recommendation> createRecommendations(List<Recommendation> body);
+
     /**
      * Sample usage: "curl $HOST:$PORT/recommendation?productId=1".
      *
@@ -24,5 +34,47 @@ public interface RecommendationService {
         @RequestParam(value = "productId", required = true) int productId
     );
 
+    /**
+     * Sample usage: "curl $HOST:$PORT/recommendation?productId=1&limit=10&afterId=3".
+     *
+     * @param productId Id of the product
+     * @param limit Max number of recommendations to return
+     * @param afterId Only recommendations with a higher recommendationId are returned
+     * @return a page of the recommendations of the product, ordered by recommendationId
+     */
+    @GetMapping(value = "/recommendation", params = "limit", produces = MediaType.APPLICATION_JSON_VALUE)
+    Flux<Recommendation> getRecommendations(
+        @RequestHeader HttpHeaders headers,
+        @RequestParam(value = "productId", required = true) int productId,
+        @RequestParam(value = "limit", required = true) int limit,
+        @RequestParam(value = "afterId", required = false, defaultValue = "0") int afterId
+    );
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/recommendation?productIds=1,2,3".
+     *
+     * @param productIds Ids of the products
+     * @return the recommendations of the products, grouped by productId
+     */
+    @GetMapping(value = "/recommendation", params = "productIds", produces = MediaType.APPLICATION_JSON_VALUE)
+    Flux<Recommendation> getRecommendations(
+        @RequestHeader HttpHeaders headers,
+        @RequestParam(value = "productIds", required = true) List<Integer> productIds
+    );
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/recommendation?productIds=1,2,3&limit=10".
+     *
+     * @param productIds Ids of the products
+     * @param limit Max number of recommendations to return per product
+     * @return the first page of the recommendations of each product, grouped by productId and ordered by recommendationId
+     */
+    @GetMapping(value = "/recommendation", params = {"productIds", "limit"}, produces = MediaType.APPLICATION_JSON_VALUE)
+    Flux<Recommendation> getRecommendations(
+        @RequestHeader HttpHeaders headers,
+        @RequestParam(value = "productIds", required = true) List<Integer> productIds,
+        @RequestParam(value = "limit", required = true) int limit
+    );
+
     Mono<Void> deleteRecommendations(int productId);
 }
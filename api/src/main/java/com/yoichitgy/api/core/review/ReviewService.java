@@ -1,5 +1,7 @@
 package com.yoichitgy.api.core.review;
 
+import java.util.List;
+
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -13,6 +15,13 @@ import reactor.core.publisher.Mono;
 public interface ReviewService {
     Mono<Review> createReview(@RequestBody Review body);
 
+    /**
+     * Creates all the reviews or, e.g. if any of them already exists, none of them.
+     *
+     * @return the created reviews
+     */
+    Flux<Review> createReviews(@RequestBody List<Review> body);
+
     /**
      * Sample usage: "curl $HOST:$PORT/review?productId=1".
      *
@@ -25,5 +34,47 @@ public interface ReviewService {
         @RequestParam(value = "productId", required = true) int productId
     );
 
+    /**
+     * Sample usage: "curl $HOST:$PORT/review?productId=1&limit=10&afterId=3".
+     *
+     * @param productId Id of the product
+     * @param limit Max number of reviews to return
+     * @param afterId Only reviews with a higher reviewId are returned
+     * @return a page of the reviews of the product, ordered by reviewId
+     */
+    @GetMapping(value = "/review", params = "limit", produces = MediaType.APPLICATION_JSON_VALUE)
+    Flux<Review> getReviews(
+        @RequestHeader HttpHeaders headers,
+        @RequestParam(value = "productId", required = true) int productId,
+        @RequestParam(value = "limit", required = true) int limit,
+        @RequestParam(value = "afterId", required = false, defaultValue = "0") int afterId
+    );
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/review?productIds=1,2,3".
+     *
+     * @param productIds Ids of the products
+     * @return the reviews of the products, grouped by productId
+     */
+    @GetMapping(value = "/review", params = "productIds", produces = MediaType.APPLICATION_JSON_VALUE)
+    Flux<Review> getReviews(
+        @RequestHeader HttpHeaders headers,
+        @RequestParam(value = "productIds", required = true) List<Integer> productIds
+    );
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/review?productIds=1,2,3&limit=10".
+     *
+     * @param productIds Ids of the products
+     * @param limit Max number of reviews to return per product
+     * @return the first page of the reviews of each product, grouped by productId and ordered by reviewId
+     */
+    @GetMapping(value = "/review", params = {"productIds", "limit"}, produces = MediaType.APPLICATION_JSON_VALUE)
+    Flux<Review> getReviews(
+        @RequestHeader HttpHeaders headers,
+        @RequestParam(value = "productIds", required = true) List<Integer> productIds,
+        @RequestParam(value = "limit", required = true) int limit
+    );
+
     Mono<Void> deleteReviews(@RequestParam(value = "productId", required = true)  int productId);
 }
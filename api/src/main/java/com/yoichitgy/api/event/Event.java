@@ -1,7 +1,9 @@
 package com.yoichitgy.api.event;
 
 import java.time.ZonedDateTime;
+import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.datatype.jsr310.ser.ZonedDateTimeSerializer;
 
@@ -15,16 +17,27 @@ import lombok.Value;
 public class Event<K, T> {
     public enum Type {
         CREATE,
-        DELETE
+        DELETE,
+        CREATE_BATCH
     }
 
     private final Type eventType;
     private final K key;
     private final T data;
+    // The data of a CREATE_BATCH event, left out of the other events
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final List<T> batch;
     private final ZonedDateTime eventCreatedAt;
 
     public Event(Type eventType, K key, T data) {
-        this(eventType, key, data, ZonedDateTime.now());
+        this(eventType, key, data, null, ZonedDateTime.now());
+    }
+
+    /**
+     * Creates all the data in one message, e.g. the reviews of a product. The key is shared by the data.
+     */
+    public static <K, T> Event<K, T> batch(K key, List<T> batch) {
+        return new Event<>(Type.CREATE_BATCH, key, null, batch, ZonedDateTime.now());
     }
 
     @JsonSerialize(using = ZonedDateTimeSerializer.class)
@@ -0,0 +1,54 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import java.util.function.Consumer;
+
+import com.yoichitgy.api.core.product.Product;
+import com.yoichitgy.api.core.recommendation.Recommendation;
+import com.yoichitgy.api.core.review.Review;
+import com.yoichitgy.api.event.Event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CacheInvalidationConfiguration {
+    private static final Logger LOG = LoggerFactory.getLogger(CacheInvalidationConfiguration.class);
+
+    private final ProductAggregateCache cache;
+    private final ProductFallbackStore fallbackStore;
+
+    @Autowired
+    public CacheInvalidationConfiguration(ProductAggregateCache cache, ProductFallbackStore fallbackStore) {
+        this.cache = cache;
+        this.fallbackStore = fallbackStore;
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Product>> productCacheInvalidator() {
+        return event -> {
+            invalidate("product", event);
+            // A deleted product must not be served from the fallback store
+            if (event.getEventType() == Event.Type.DELETE) {
+                fallbackStore.invalidate(event.getKey());
+            }
+        };
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Recommendation>> recommendationCacheInvalidator() {
+        return event -> invalidate("recommendation", event);
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Review>> reviewCacheInvalidator() {
+        return event -> invalidate("review", event);
+    }
+
+    private void invalidate(String source, Event<Integer, ?> event) {
+        LOG.debug("Got a {} {} event for productId: {}", source, event.getEventType(), event.getKey());
+        cache.invalidate(event.getKey());
+    }
+}
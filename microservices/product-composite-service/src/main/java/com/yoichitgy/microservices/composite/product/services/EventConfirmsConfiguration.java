@@ -0,0 +1,28 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.SubscribableChannel;
+
+@Configuration
+public class EventConfirmsConfiguration {
+    private final EventSender eventSender;
+
+    @Autowired
+    public EventConfirmsConfiguration(EventSender eventSender) {
+        this.eventSender = eventSender;
+    }
+
+    /**
+     * The Kafka binder sends the records it has written to this channel, set as recordMetadataChannel
+     * of the out bindings.
+     */
+    @Bean
+    public SubscribableChannel eventConfirms() {
+        var channel = new DirectChannel();
+        channel.subscribe(eventSender::confirm);
+        return channel;
+    }
+}
@@ -0,0 +1,501 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yoichitgy.api.event.Event;
+import com.yoichitgy.api.exceptions.ServiceUnavailableException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Append-only, file-backed outbox for events. Events are acknowledged once they are appended and forced to disk,
+ * a single background publisher sends them to the broker in batches and records the published position once the
+ * broker has confirmed them, see EventSender.sendConfirmed.
+ *
+ * The log holds one JSON entry per line, outbox.offset holds the position up to which the log has been published.
+ * On start, the entries after that position are published again, i.e. events are delivered at least once.
+ * The log is split into segment files named by the log position they start at. Once the last segment has grown
+ * beyond segmentSize the publisher starts a new one, and deletes the segments before the published position,
+ * so the log stays bounded while events keep coming.
+ *
+ * Concurrent appends share one fsync (group commit). At most maxDepth events wait to be published, further appends
+ * are rejected with a ServiceUnavailableException until the publisher has caught up.
+ */
+@Component
+public class EventOutbox {
+    private static final Logger LOG = LoggerFactory.getLogger(EventOutbox.class);
+
+    private static final String SEGMENT_PREFIX = "outbox-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String OFFSET_FILE = "outbox.offset";
+    private static final int RECOVERY_CHUNK_SIZE = 64 * 1024;
+
+    record Entry(String binding, Object key, long appendedAt, JsonNode event) {}
+
+    // end is the log position after the entry, i.e. the published position once it is sent
+    private record Pending(Entry entry, long end) {}
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int batchSize;
+    private final int maxDepth;
+    private final Duration confirmTimeout;
+    private final long segmentSize;
+    private final ObjectMapper mapper;
+    private final EventSender eventSender;
+
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    // Held while forcing the log, taken before the lock on this when both are needed
+    private final Object forceLock = new Object();
+    // Start positions of the segments, the log is written to the last one
+    private final List<Long> segments = new ArrayList<>();
+    private FileChannel log;
+    private long segmentStart;
+    private FileChannel offset;
+    // The log is written up to end and durable up to forced, only durable entries are published
+    private long end;
+    private long forced;
+    private Scheduler publisher;
+    private Timer publishLag;
+    private Counter publishFailures;
+    private Counter rejected;
+
+    @Autowired
+    public EventOutbox(
+        @Value("${app.outbox.enabled:false}") boolean enabled,
+        @Value("${app.outbox.directory:outbox}") Path directory,
+        @Value("${app.outbox.batchSize:100}") int batchSize,
+        @Value("${app.outbox.maxDepth:100000}") int maxDepth,
+        @Value("${app.outbox.publishInterval:10ms}") Duration publishInterval,
+        @Value("${app.outbox.confirmTimeout:10s}") Duration confirmTimeout,
+        @Value("${app.outbox.segmentSize:64MB}") DataSize segmentSize,
+        ObjectMapper mapper,
+        EventSender eventSender,
+        MeterRegistry meterRegistry
+    ) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.batchSize = batchSize;
+        this.maxDepth = maxDepth;
+        this.confirmTimeout = confirmTimeout;
+        this.segmentSize = segmentSize.toBytes();
+        this.mapper = mapper;
+        this.eventSender = eventSender;
+        if (!enabled) {
+            return;
+        }
+
+        LOG.info("Creates an eventOutbox in {} with batchSize = {}, maxDepth = {}, publishInterval = {}, confirmTimeout = {}, segmentSize = {}",
+            directory.toAbsolutePath(), batchSize, maxDepth, publishInterval, confirmTimeout, segmentSize);
+        try {
+            Files.createDirectories(directory);
+            this.offset = FileChannel.open(directory.resolve(OFFSET_FILE), CREATE, READ, WRITE);
+            recover();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to open the outbox in " + directory, ex);
+        }
+
+        Gauge.builder("outbox.depth", this, EventOutbox::depth)
+            .description("Events appended to the outbox but not yet published")
+            .register(meterRegistry);
+        this.publishLag = Timer.builder("outbox.publish.lag")
+            .description("Time from appending an event to the outbox until it is published")
+            .register(meterRegistry);
+        this.publishFailures = meterRegistry.counter("outbox.publish.failures");
+        this.rejected = meterRegistry.counter("outbox.rejected");
+
+        this.publisher = Schedulers.newSingle("outbox-publisher");
+        var intervalMillis = publishInterval.toMillis();
+        publisher.schedulePeriodically(this::publishPendingSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Appends the events with one write, blocks until they are durable.
+     */
+    public void append(String binding, List<? extends Event<?, ?>> events) {
+        var now = System.currentTimeMillis();
+        var bytes = new ByteArrayOutputStream();
+        var entries = new ArrayList<Entry>(events.size());
+        var ends = new long[events.size()];
+        try {
+            for (int i = 0; i < events.size(); i++) {
+                var event = events.get(i);
+                var entry = new Entry(binding, event.getKey(), now, mapper.valueToTree(event));
+                bytes.write(mapper.writeValueAsBytes(entry));
+                bytes.write('\n');
+                entries.add(entry);
+                ends[i] = bytes.size();
+            }
+
+            long position;
+            synchronized (this) {
+                if (pending.size() + entries.size() > maxDepth) {
+                    rejected.increment();
+                    throw new ServiceUnavailableException(
+                        "The outbox has " + pending.size() + " events to publish, cannot take " + entries.size() + " more");
+                }
+
+                var buffer = ByteBuffer.wrap(bytes.toByteArray());
+                position = end;
+                while (buffer.hasRemaining()) {
+                    position += log.write(buffer, position - segmentStart);
+                }
+
+                for (int i = 0; i < entries.size(); i++) {
+                    pending.add(new Pending(entries.get(i), end + ends[i]));
+                }
+                end = position;
+            }
+            force(position);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to append " + events.size() + " events for " + binding + " to the outbox", ex);
+        }
+    }
+
+    // The first append to get here forces everything written so far, the appends waiting meanwhile find their
+    // entries already durable and return without another fsync
+    private void force(long position) throws IOException {
+        synchronized (forceLock) {
+            long target;
+            synchronized (this) {
+                if (forced >= position) {
+                    return;
+                }
+                target = end;
+            }
+            log.force(false);
+            synchronized (this) {
+                forced = target;
+            }
+        }
+    }
+
+    private void publishPendingSafely() {
+        try {
+            publishPending();
+        } catch (RuntimeException ex) {
+            LOG.warn("Failed to publish events from the outbox, will retry: {}", ex.toString());
+        }
+    }
+
+    /**
+     * Publishes batches until the outbox is empty or an event is not confirmed. The events from the first unconfirmed
+     * one on stay pending and are sent again on the next run, i.e. the confirmed ones after it are sent twice.
+     */
+    void publishPending() {
+        while (true) {
+            List<Pending> batch;
+            synchronized (this) {
+                batch = pending.stream().takeWhile(p -> p.end() <= forced).limit(batchSize).toList();
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            var confirms = new ArrayList<CompletableFuture<Void>>(batch.size());
+            int accepted = 0;
+            while (accepted < batch.size()) {
+                var confirm = send(batch.get(accepted).entry());
+                confirms.add(confirm);
+                // The confirm fails right away when the binder does not accept the event
+                if (confirm.isCompletedExceptionally()) {
+                    break;
+                }
+                accepted++;
+            }
+            if (accepted > 0) {
+                recordGroup(batch.subList(0, accepted));
+            }
+
+            int confirmed = awaitConfirms(batch, confirms);
+            if (confirmed > 0) {
+                acknowledge(batch.subList(0, confirmed));
+            }
+            if (confirmed < batch.size()) {
+                publishFailures.increment();
+                return;
+            }
+        }
+    }
+
+    private CompletableFuture<Void> send(Entry entry) {
+        try {
+            // Sent as an event, so that it is encoded with the content type of the binding
+            return eventSender.sendConfirmed(entry.binding(), mapper.treeToValue(entry.event(), Event.class));
+        } catch (IOException | RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    // Returns the number of events confirmed in a row from the start of the batch
+    private int awaitConfirms(List<Pending> batch, List<CompletableFuture<Void>> confirms) {
+        try {
+            CompletableFuture.allOf(confirms.toArray(CompletableFuture[]::new))
+                .get(confirmTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException ex) {
+            // Counted below
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        int confirmed = 0;
+        while (confirmed < confirms.size() && isConfirmed(confirms.get(confirmed))) {
+            confirmed++;
+        }
+        if (confirmed < confirms.size()) {
+            var binding = batch.get(confirmed).entry().binding();
+            var confirm = confirms.get(confirmed);
+            if (confirm.isDone()) {
+                var cause = confirm.handle((result, ex) -> ex instanceof CompletionException ? ex.getCause() : ex).join();
+                LOG.warn("Failed to publish an event for {}, will retry: {}", binding, cause.toString());
+            } else {
+                LOG.warn("The broker did not confirm an event for {} within {}, will retry", binding, confirmTimeout);
+            }
+        }
+        // Stops waiting for the confirms that are still missing
+        confirms.forEach(confirm -> confirm.cancel(false));
+        return confirmed;
+    }
+
+    private static boolean isConfirmed(CompletableFuture<Void> confirm) {
+        return confirm.isDone() && !confirm.isCompletedExceptionally();
+    }
+
+    private void recordGroup(List<Pending> sent) {
+        Map<String, Long> sizes = sent.stream()
+            .collect(Collectors.groupingBy(p -> p.entry().binding(), Collectors.counting()));
+        sizes.forEach((binding, size) -> eventSender.recordGroup(binding, size.intValue()));
+    }
+
+    private void acknowledge(List<Pending> published) {
+        var now = System.currentTimeMillis();
+        var position = published.get(published.size() - 1).end();
+        List<Long> obsolete;
+        try {
+            writeOffset(position);
+            synchronized (forceLock) {
+                synchronized (this) {
+                    published.forEach(p -> pending.removeFirst());
+                    if (end - segmentStart >= segmentSize) {
+                        roll();
+                    }
+                    obsolete = removeSegmentsBefore(position);
+                }
+            }
+        } catch (IOException ex) {
+            // The events are in the log and published again, consumers handle them idempotently
+            throw new UncheckedIOException("Failed to record the published outbox position", ex);
+        }
+        obsolete.forEach(this::deleteSegment);
+        published.forEach(p -> publishLag.record(now - p.entry().appendedAt(), TimeUnit.MILLISECONDS));
+    }
+
+    // Called with both locks held, so no append or force uses the segment while it is closed
+    private void roll() throws IOException {
+        LOG.debug("Starts a new outbox segment at {}, the last one has {} bytes", end, end - segmentStart);
+        log.force(false);
+        log.close();
+        forced = end;
+        openSegment(end);
+    }
+
+    private void openSegment(long start) throws IOException {
+        log = FileChannel.open(segmentPath(start), CREATE, READ, WRITE);
+        segmentStart = start;
+        segments.add(start);
+        forceDirectory();
+    }
+
+    // Removes the segments that only hold entries before the position, the last segment is always kept
+    private List<Long> removeSegmentsBefore(long position) {
+        var obsolete = new ArrayList<Long>();
+        while (segments.size() > 1 && segments.get(1) <= position) {
+            obsolete.add(segments.remove(0));
+        }
+        return obsolete;
+    }
+
+    private void deleteSegment(long start) {
+        try {
+            Files.deleteIfExists(segmentPath(start));
+        } catch (IOException ex) {
+            // Deleted on the next start
+            LOG.warn("Failed to delete the published outbox segment {}: {}", start, ex.toString());
+        }
+    }
+
+    // Makes a created segment file durable, where the platform allows to force a directory
+    private void forceDirectory() {
+        try (var channel = FileChannel.open(directory, READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            LOG.debug("Could not force the outbox directory: {}", ex.toString());
+        }
+    }
+
+    private void recover() throws IOException {
+        var published = readOffset();
+        try (var files = Files.list(directory)) {
+            files.map(file -> segmentStart(file.getFileName().toString()))
+                .filter(Objects::nonNull)
+                .sorted()
+                .forEach(segments::add);
+        }
+        // Segments before the published position are left if the service stopped before deleting them
+        removeSegmentsBefore(published).forEach(this::deleteSegment);
+        if (segments.isEmpty()) {
+            segments.add(published);
+        }
+
+        // The entries are read in chunks, so the log is never held in memory as a whole
+        long valid = published;
+        for (int i = 0; i < segments.size() - 1; i++) {
+            var start = segments.get(i);
+            try (var channel = FileChannel.open(segmentPath(start), READ)) {
+                valid = readEntries(channel, start, Math.max(published, start));
+            }
+            if (valid < segments.get(i + 1)) {
+                LOG.warn("Drops a partially written outbox entry at the end of the segment {}", start);
+            }
+        }
+
+        var last = segments.remove(segments.size() - 1);
+        openSegment(last);
+        valid = readEntries(log, last, Math.max(published, last));
+        var size = last + log.size();
+        if (valid < size) {
+            LOG.warn("Drops a partially written outbox entry of {} bytes", size - valid);
+            log.truncate(valid - last);
+            log.force(true);
+        } else if (valid > size) {
+            // The published position is after the end of the log, e.g. the segment was deleted by hand
+            LOG.warn("The published outbox position {} is after the end of the log {}, starts a new segment", valid, size);
+            log.close();
+            openSegment(valid);
+        }
+        end = valid;
+        forced = end;
+        if (!pending.isEmpty()) {
+            LOG.info("Will publish {} events left in the outbox", pending.size());
+        }
+    }
+
+    // Adds the entries of the segment from the position on to the pending ones, returns the position after the last one
+    private long readEntries(FileChannel channel, long start, long from) throws IOException {
+        var buffer = ByteBuffer.allocate(RECOVERY_CHUNK_SIZE);
+        var line = new ByteArrayOutputStream();
+        long position = from;
+        long entriesEnd = from;
+        while (channel.read(buffer, position - start) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                var b = buffer.get();
+                position++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                var entry = mapper.readValue(line.toByteArray(), Entry.class);
+                pending.add(new Pending(entry, position));
+                line.reset();
+                entriesEnd = position;
+            }
+            buffer.clear();
+        }
+        return entriesEnd;
+    }
+
+    static String segmentName(long start) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, start, SEGMENT_SUFFIX);
+    }
+
+    private Path segmentPath(long start) {
+        return directory.resolve(segmentName(start));
+    }
+
+    private static Long segmentStart(String fileName) {
+        if (!fileName.startsWith(SEGMENT_PREFIX) || !fileName.endsWith(SEGMENT_SUFFIX)) {
+            return null;
+        }
+        try {
+            return Long.valueOf(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private long readOffset() throws IOException {
+        var buffer = ByteBuffer.allocate(Long.BYTES);
+        while (buffer.hasRemaining()) {
+            if (offset.read(buffer, buffer.position()) < 0) {
+                return 0;
+            }
+        }
+        return buffer.flip().getLong();
+    }
+
+    private void writeOffset(long position) throws IOException {
+        var buffer = ByteBuffer.allocate(Long.BYTES).putLong(position).flip();
+        while (buffer.hasRemaining()) {
+            offset.write(buffer, buffer.position());
+        }
+        offset.force(false);
+    }
+
+    synchronized int depth() {
+        return pending.size();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        publisher.dispose();
+        log.close();
+        offset.close();
+    }
+}
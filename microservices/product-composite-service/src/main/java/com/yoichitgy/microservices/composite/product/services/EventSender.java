@@ -0,0 +1,154 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.yoichitgy.api.event.Event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Sends events to a binding through the StreamBridge and records per binding, tagged with binding:
+ * events.send.latency, the time the binder takes to accept an event, and events.send.group.size,
+ * the number of events handed to the binder one after the other in one call or outbox run. The group size is
+ * not the size of the requests to the broker, which the producer batches on its own, e.g. with linger.ms.
+ *
+ * With the producer batching of the streaming_throughput profile, the latency is the time to enqueue an event
+ * in the producer's batch, not the time until the broker has it. Only sendConfirmed waits for the broker.
+ */
+@Component
+public class EventSender {
+    private static final Logger LOG = LoggerFactory.getLogger(EventSender.class);
+
+    static final String CONFIRM_ID_HEADER = "confirmId";
+
+    /**
+     * How sendConfirmed learns that the broker has an event:
+     * RABBIT, from a publisher confirm correlated by the CorrelationData in the message (useConfirmHeader),
+     * KAFKA, from the record written to the eventConfirms channel (recordMetadataChannel),
+     * NONE, the binder accepting the event counts as confirmed, only for the test binder.
+     */
+    public enum Confirms {
+        NONE,
+        RABBIT,
+        KAFKA
+    }
+
+    private final StreamBridge streamBridge;
+    private final Confirms confirms;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, CompletableFuture<Void>> kafkaConfirms = new ConcurrentHashMap<>();
+
+    @Autowired
+    public EventSender(
+        StreamBridge streamBridge,
+        @Value("${app.events.confirms:none}") Confirms confirms,
+        MeterRegistry meterRegistry
+    ) {
+        this.streamBridge = streamBridge;
+        this.confirms = confirms;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Sends the event partitioned by its key, returns false if the binder did not accept it.
+     */
+    public boolean send(String bindingName, Event<?, ?> event) {
+        return send(bindingName, message(event).build());
+    }
+
+    /**
+     * Sends the event partitioned by its key. The result completes when the broker has confirmed the event,
+     * and fails when the binder did not accept it or the broker rejected it. A lost confirm never completes it,
+     * the caller waits with a timeout and cancels the result.
+     */
+    public CompletableFuture<Void> sendConfirmed(String bindingName, Event<?, ?> event) {
+        switch (confirms) {
+            case RABBIT: {
+                var correlation = new CorrelationData();
+                if (!send(bindingName, message(event).setHeader(AmqpHeaders.PUBLISH_CONFIRM_CORRELATION, correlation).build())) {
+                    return notAccepted(bindingName);
+                }
+                return correlation.getFuture().completable().thenAccept(confirm -> {
+                    if (!confirm.isAck()) {
+                        throw new IllegalStateException("The broker rejected an event for " + bindingName + ": " + confirm.getReason());
+                    }
+                });
+            }
+            case KAFKA: {
+                var confirmId = UUID.randomUUID().toString();
+                var confirm = new CompletableFuture<Void>();
+                kafkaConfirms.put(confirmId, confirm);
+                confirm.whenComplete((result, ex) -> kafkaConfirms.remove(confirmId));
+                if (!send(bindingName, message(event).setHeader(CONFIRM_ID_HEADER, confirmId).build())) {
+                    confirm.cancel(false);
+                    return notAccepted(bindingName);
+                }
+                return confirm;
+            }
+            default:
+                return send(bindingName, message(event).build())
+                    ? CompletableFuture.completedFuture(null)
+                    : notAccepted(bindingName);
+        }
+    }
+
+    /**
+     * Completes the sendConfirmed of a record that Kafka has written.
+     */
+    void confirm(Message<?> sent) {
+        var confirmId = sent.getHeaders().get(CONFIRM_ID_HEADER, String.class);
+        var confirm = confirmId != null ? kafkaConfirms.get(confirmId) : null;
+        if (confirm == null) {
+            LOG.debug("Got a confirm for an event not waited for, confirmId: {}", confirmId);
+            return;
+        }
+        confirm.complete(null);
+    }
+
+    public void recordGroup(String bindingName, int size) {
+        DistributionSummary.builder("events.send.group.size")
+            .description("Events handed to the binder one after the other in one call")
+            .tag("binding", bindingName)
+            .register(meterRegistry)
+            .record(size);
+    }
+
+    private MessageBuilder<Event<?, ?>> message(Event<?, ?> event) {
+        return MessageBuilder.<Event<?, ?>>withPayload(event)
+            .setHeader("partitionKey", event.getKey());
+    }
+
+    private boolean send(String bindingName, Message<?> message) {
+        var sample = Timer.start(meterRegistry);
+        try {
+            return streamBridge.send(bindingName, message);
+        } finally {
+            sample.stop(Timer.builder("events.send.latency")
+                .description("Time for the binder to accept an event")
+                .tag("binding", bindingName)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+        }
+    }
+
+    private static CompletableFuture<Void> notAccepted(String bindingName) {
+        return CompletableFuture.failedFuture(new IllegalStateException("The binder did not accept an event for " + bindingName));
+    }
+}
@@ -0,0 +1,120 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+import com.yoichitgy.util.http.Deadline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+/**
+ * Collects single productId lookups during a short window and dispatches them as one multi-id lookup,
+ * in the same way as a DataLoader does.
+ *
+ * A batch is dispatched when the window has passed or when it holds maxKeys lookups, whichever comes first.
+ * The multi-id lookup gets the latest deadline of the batched lookups, or none if one of them has none,
+ * a lookup with an earlier deadline times out on its own.
+ */
+public class MicroBatcher<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(MicroBatcher.class);
+
+    private final String name;
+    private final Function<List<Integer>, Flux<T>> loader;
+    private final Function<T, Integer> keyOf;
+    private final DistributionSummary batchSize;
+    // Keeps the lookups while the dispatcher is resubscribed after an error
+    private final Sinks.Many<PendingLookup<T>> lookups = Sinks.many().multicast().onBackpressureBuffer(Queues.SMALL_BUFFER_SIZE, false);
+    private final Disposable dispatcher;
+
+    public MicroBatcher(
+        String name,
+        Duration window,
+        int maxKeys,
+        Function<List<Integer>, Flux<T>> loader,
+        Function<T, Integer> keyOf,
+        MeterRegistry meterRegistry
+    ) {
+        LOG.info("Creates a microBatcher for {} with window = {}, maxKeys = {}", name, window, maxKeys);
+
+        this.name = name;
+        this.loader = loader;
+        this.keyOf = keyOf;
+        this.batchSize = DistributionSummary.builder("composite.batch.size")
+            .tag("operation", name)
+            .register(meterRegistry);
+        // bufferTimeout emits on its timer regardless of the demand, so the batches are buffered
+        this.dispatcher = lookups.asFlux()
+            .bufferTimeout(maxKeys, window)
+            .onBackpressureBuffer()
+            .flatMap(this::dispatch)
+            .doOnError(ex -> LOG.error("The {} dispatcher failed, resubscribes it", name, ex))
+            .retry()
+            .subscribe();
+    }
+
+    public Flux<T> load(int productId) {
+        return Mono.<List<T>>create(sink ->
+                // Lookups are emitted from many threads, so retry if another thread is emitting at the same time
+                lookups.emitNext(
+                    new PendingLookup<>(productId, Deadline.get(sink.contextView()).orElse(null), sink),
+                    (signalType, result) -> result == Sinks.EmitResult.FAIL_NON_SERIALIZED
+                )
+            )
+            .flatMapMany(Flux::fromIterable);
+    }
+
+    public void dispose() {
+        dispatcher.dispose();
+    }
+
+    private Mono<Void> dispatch(List<PendingLookup<T>> batch) {
+        var productIds = batch.stream().map(lookup -> lookup.productId).distinct().toList();
+        LOG.debug("Dispatches a {} batch of {} lookups for {} productIds", name, batch.size(), productIds.size());
+        batchSize.record(productIds.size());
+
+        var deadline = latestDeadline(batch);
+        return Flux.defer(() -> loader.apply(productIds))
+            .contextWrite(context -> deadline.map(d -> Deadline.put(context, d)).orElse(context))
+            .collectMultimap(keyOf)
+            .doOnNext(results -> batch.forEach(lookup ->
+                lookup.sink.success(new ArrayList<>(results.getOrDefault(lookup.productId, List.of())))
+            ))
+            .doOnError(ex -> batch.forEach(lookup -> lookup.sink.error(ex)))
+            .onErrorResume(ex -> Mono.empty())
+            .then();
+    }
+
+    private Optional<Instant> latestDeadline(List<PendingLookup<T>> batch) {
+        if (batch.stream().anyMatch(lookup -> lookup.deadline == null)) {
+            return Optional.empty();
+        }
+        return batch.stream().map(lookup -> lookup.deadline).max(Comparator.naturalOrder());
+    }
+
+    private static class PendingLookup<T> {
+        private final int productId;
+        private final Instant deadline;
+        private final MonoSink<List<T>> sink;
+
+        PendingLookup(int productId, Instant deadline, MonoSink<List<T>> sink) {
+            this.productId = productId;
+            this.deadline = deadline;
+            this.sink = sink;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.yoichitgy.api.exceptions.InvalidInputException;
+
+/**
+ * Continuation token of a page of recommendations or reviews, i.e. the section, the productId and
+ * the last recommendationId or reviewId returned, encoded as an opaque string.
+ */
+class PageToken {
+    private final String section;
+    private final int productId;
+    private final int afterId;
+
+    PageToken(String section, int productId, int afterId) {
+        this.section = section;
+        this.productId = productId;
+        this.afterId = afterId;
+    }
+
+    String getSection() {
+        return section;
+    }
+
+    int getProductId() {
+        return productId;
+    }
+
+    int getAfterId() {
+        return afterId;
+    }
+
+    String encode() {
+        var token = section + ":" + productId + ":" + afterId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static PageToken decode(String token) {
+        try {
+            var parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":");
+            if (parts.length != 3) {
+                throw new InvalidInputException("Invalid pageToken: " + token);
+            }
+            return new PageToken(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidInputException("Invalid pageToken: " + token);
+        }
+    }
+}
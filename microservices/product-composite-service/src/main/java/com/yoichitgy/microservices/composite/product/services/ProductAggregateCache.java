@@ -0,0 +1,175 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.yoichitgy.api.composite.product.ProductAggregate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import reactor.core.publisher.Mono;
+
+/**
+ * In-process cache of assembled product aggregates, bounded by size and time to live.
+ *
+ * Entries are invalidated when a product, recommendation or review event is seen for the product,
+ * see {@link CacheInvalidationConfiguration}. Since the composite may see an event before the core
+ * service has applied it, every invalidation is repeated after a short delay.
+ */
+@Component
+public class ProductAggregateCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ProductAggregateCache.class);
+
+    private static final int GENERATION_STRIPES = 4096;
+
+    private final boolean enabled;
+    private final Duration reinvalidateDelay;
+    private final Cache<Integer, ProductAggregate> cache;
+
+    // Bumped on invalidations, so that a load started before an invalidation of its product is not cached.
+    // The generations are striped by productId, so an invalidation only affects the loads of the products
+    // in its stripe, instead of every load in flight
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private final AtomicLong allGeneration = new AtomicLong();
+
+    @Autowired
+    public ProductAggregateCache(
+        @Value("${app.productAggregateCache.enabled:true}") boolean enabled,
+        @Value("${app.productAggregateCache.maximumSize:10000}") long maximumSize,
+        @Value("${app.productAggregateCache.expireAfterWrite:60s}") Duration expireAfterWrite,
+        @Value("${app.productAggregateCache.reinvalidateDelay:2s}") Duration reinvalidateDelay,
+        MeterRegistry meterRegistry
+    ) {
+        LOG.info("Creates a productAggregateCache with enabled = {}, maximumSize = {}, expireAfterWrite = {}",
+            enabled, maximumSize, expireAfterWrite);
+
+        this.enabled = enabled;
+        this.reinvalidateDelay = reinvalidateDelay;
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWrite)
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "productAggregates");
+    }
+
+    public Mono<ProductAggregate> get(
+        int productId,
+        Supplier<Mono<ProductAggregate>> loader,
+        Predicate<ProductAggregate> cacheable
+    ) {
+        if (!enabled) {
+            return loader.get();
+        }
+
+        return Mono.defer(() -> {
+            var cached = cache.getIfPresent(productId);
+            if (cached != null) {
+                LOG.debug("Found a cached product aggregate for productId: {}", productId);
+                return Mono.just(cached);
+            }
+
+            var loadGeneration = generation(productId);
+            return loader.get().doOnNext(aggregate -> put(productId, aggregate, loadGeneration, cacheable));
+        });
+    }
+
+    /**
+     * Looks up a cached product aggregate without loading it if it is not cached.
+     */
+    public Mono<ProductAggregate> getIfPresent(int productId) {
+        if (!enabled) {
+            return Mono.empty();
+        }
+        return Mono.fromSupplier(() -> cache.getIfPresent(productId));
+    }
+
+    /**
+     * Looks up several product aggregates at once, the loader is called once with the ids not found in the cache.
+     *
+     * @return the product aggregates found, keyed by productId
+     */
+    public Mono<Map<Integer, ProductAggregate>> getAll(
+        Collection<Integer> productIds,
+        Function<List<Integer>, Mono<Map<Integer, ProductAggregate>>> loader,
+        Predicate<ProductAggregate> cacheable
+    ) {
+        if (!enabled) {
+            return loader.apply(List.copyOf(productIds));
+        }
+
+        return Mono.defer(() -> {
+            var cached = cache.getAllPresent(productIds);
+            var missing = productIds.stream().filter(id -> !cached.containsKey(id)).toList();
+            LOG.debug("Found {} cached product aggregates, will load {}", cached.size(), missing.size());
+            if (missing.isEmpty()) {
+                return Mono.just(cached);
+            }
+
+            var loadGenerations = missing.stream().collect(Collectors.toMap(Function.identity(), this::generation, (g1, g2) -> g1));
+            return loader.apply(missing).map(loaded -> {
+                loaded.forEach((productId, aggregate) -> {
+                    var loadGeneration = loadGenerations.get(productId);
+                    if (loadGeneration != null) {
+                        put(productId, aggregate, loadGeneration, cacheable);
+                    }
+                });
+                Map<Integer, ProductAggregate> result = new HashMap<>(cached);
+                result.putAll(loaded);
+                return result;
+            });
+        });
+    }
+
+    public void invalidate(int productId) {
+        invalidateNow(productId);
+        Mono.delay(reinvalidateDelay).subscribe(t -> invalidateNow(productId));
+    }
+
+    public void invalidateAll() {
+        allGeneration.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    private void put(int productId, ProductAggregate aggregate, long loadGeneration, Predicate<ProductAggregate> cacheable) {
+        if (!cacheable.test(aggregate)) {
+            return;
+        }
+        cache.put(productId, aggregate);
+        if (generation(productId) != loadGeneration) {
+            cache.invalidate(productId);
+        }
+    }
+
+    private void invalidateNow(int productId) {
+        LOG.debug("Invalidates the cached product aggregate for productId: {}", productId);
+        generations.incrementAndGet(stripe(productId));
+        cache.invalidate(productId);
+    }
+
+    // Both counters only grow, so their sum changes whenever either of them does
+    private long generation(int productId) {
+        return allGeneration.get() + generations.get(stripe(productId));
+    }
+
+    private static int stripe(int productId) {
+        return Math.floorMod(productId, GENERATION_STRIPES);
+    }
+}
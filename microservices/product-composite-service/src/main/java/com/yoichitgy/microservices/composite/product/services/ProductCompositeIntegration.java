@@ -1,7 +1,15 @@
 package com.yoichitgy.microservices.composite.product.services;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yoichitgy.api.core.product.Product;
@@ -14,25 +22,27 @@ import com.yoichitgy.api.event.Event;
 import com.yoichitgy.api.event.Event.Type;
 import com.yoichitgy.api.exceptions.InvalidInputException;
 import com.yoichitgy.api.exceptions.NotFoundException;
+import com.yoichitgy.util.http.Deadline;
 import com.yoichitgy.util.http.HttpErrorInfo;
-import com.yoichitgy.util.http.ServiceUtil;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
-import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker.State;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import io.github.resilience4j.retry.annotation.Retry;
 import io.github.resilience4j.timelimiter.annotation.TimeLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
@@ -44,27 +54,75 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     private static final String PRODUCT_SERVICE_URL = "http://product";
     private static final String RECOMMENDATION_SERVICE_URL = "http://recommendation";
     private static final String REVIEW_SERVICE_URL = "http://review";
+    private static final int STALE_REFRESH_BATCH_SIZE = 100;
   
     private final WebClient webClient;
     private final ObjectMapper mapper;
-    private final StreamBridge streamBridge;
+    private final EventSender eventSender;
+    private final EventOutbox outbox;
     private final Scheduler publishEventScheduler;
-
-    private final ServiceUtil serviceUtil;
+    private final RequestCoalescer coalescer;
+    private final RequestHedger hedger;
+    private final ProductFallbackStore fallbackStore;
+    private final MicroBatcher<Product> productBatcher;
+    private final MicroBatcher<Recommendation> recommendationBatcher;
+    private final MicroBatcher<Review> reviewBatcher;
+    private final int eventBatchMaxSize;
 
     @Autowired
     public ProductCompositeIntegration(
         WebClient.Builder webClientBuilder,
         ObjectMapper mapper,
-        StreamBridge streamBridge,
+        EventSender eventSender,
+        EventOutbox outbox,
         @Qualifier("publishEventScheduler") Scheduler publishEventScheduler,
-        ServiceUtil serviceUtil
+        RequestCoalescer coalescer,
+        RequestHedger hedger,
+        ProductFallbackStore fallbackStore,
+        CircuitBreakerRegistry circuitBreakerRegistry,
+        MeterRegistry meterRegistry,
+        @Value("${app.microBatching.enabled:false}") boolean microBatchingEnabled,
+        @Value("${app.microBatching.window:2ms}") Duration microBatchingWindow,
+        @Value("${app.microBatching.maxKeys:64}") int microBatchingMaxKeys,
+        @Value("${app.eventBatch.maxSize:100}") int eventBatchMaxSize
     ) {
-        this.webClient = webClientBuilder.build();
+        this.webClient = webClientBuilder.filter(Deadline.propagate()).build();
         this.mapper = mapper;
-        this.streamBridge = streamBridge;
+        this.eventSender = eventSender;
+        this.outbox = outbox;
         this.publishEventScheduler = publishEventScheduler;
-        this.serviceUtil = serviceUtil;
+        this.coalescer = coalescer;
+        this.hedger = hedger;
+        this.fallbackStore = fallbackStore;
+        this.eventBatchMaxSize = eventBatchMaxSize;
+
+        circuitBreakerRegistry.circuitBreaker("product").getEventPublisher().onStateTransition(event -> {
+            if (event.getStateTransition().getToState() == State.CLOSED) {
+                refreshStaleProducts();
+            }
+        });
+
+        // Only calls without forwarded headers are batched, so one batch never mixes calls routed to different groups.
+        // Invalid ids are not batched either, the core services reject a multi-id request with one invalid id as a whole
+        if (microBatchingEnabled) {
+            var noHeaders = new HttpHeaders();
+            this.productBatcher = new MicroBatcher<>(
+                "getProduct", microBatchingWindow, microBatchingMaxKeys,
+                productIds -> getProducts(noHeaders, productIds), Product::getProductId, meterRegistry
+            );
+            this.recommendationBatcher = new MicroBatcher<>(
+                "getRecommendations", microBatchingWindow, microBatchingMaxKeys,
+                productIds -> getRecommendations(noHeaders, productIds), Recommendation::getProductId, meterRegistry
+            );
+            this.reviewBatcher = new MicroBatcher<>(
+                "getReviews", microBatchingWindow, microBatchingMaxKeys,
+                productIds -> getReviews(noHeaders, productIds), Review::getProductId, meterRegistry
+            );
+        } else {
+            this.productBatcher = null;
+            this.recommendationBatcher = null;
+            this.reviewBatcher = null;
+        }
     }
 
     @Override
@@ -76,6 +134,14 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
         }).subscribeOn(publishEventScheduler);
     }
 
+    @Override
+    public Flux<Product> createProducts(List<Product> body) {
+        return Mono.fromCallable(() -> {
+            sendMessages("products-out-0", toCreateEvents(body, Product::getProductId));
+            return body;
+        }).flatMapMany(Flux::fromIterable).subscribeOn(publishEventScheduler);
+    }
+
     @Override
     @Retry(name = "product")
     @TimeLimiter(name = "product")
@@ -86,11 +152,21 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
         ).build(productId, delay, faultPercent);
         LOG.debug("Will call getProduct API on URL: {}", url);
 
-        return webClient.get()
-            .uri(url)
-            .headers(h -> h.addAll(headers))
-            .retrieve()
-            .bodyToMono(Product.class)
+        return coalescer.coalesce("getProduct", url + " " + headers, () -> {
+                if (productBatcher != null && productId > 0 && headers.isEmpty() && delay == 0 && faultPercent == 0) {
+                    return productBatcher.load(productId)
+                        .next()
+                        .switchIfEmpty(Mono.error(() -> new NotFoundException("No product found for productId: " + productId)));
+                }
+                Supplier<Mono<Product>> call = () -> webClient.get()
+                    .uri(url)
+                    .headers(h -> h.addAll(headers))
+                    .retrieve()
+                    .bodyToMono(Product.class);
+                // Requests asking for delays and faults are used for testing, hedging them would only add load
+                return (delay == 0 && faultPercent == 0) ? hedger.hedge("getProduct", call) : call.get();
+            })
+            .doOnNext(fallbackStore::put)
             .log(LOG.getName(), Level.FINE)
             .onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
     }
@@ -103,14 +179,67 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
             throw new InvalidInputException("Invalid productId: " + productId);
         }
 
-        if (productId == 13) {
+        return fallbackStore.getStale(productId).map(Mono::just).orElseGet(() -> {
             String errMsg = "Product Id: " + productId + " not found in fallback cache!";
             LOG.warn(errMsg);
-            throw new NotFoundException(errMsg);      
+            return Mono.error(new NotFoundException(errMsg));
+        });
+    }
+
+    private Mono<Product> getProductFallbackValue(HttpHeaders headers, int productId, int delay, int faultPercent, TimeoutException ex) {
+        LOG.warn("Creating a timeout fallback product for productId = {}, delay = {}, faultPercent = {} and exception = {} ",
+            productId, delay, faultPercent, ex.toString());
+
+        // Without a last known good product the timeout is returned as is
+        return fallbackStore.getStale(productId).map(Mono::just).orElseGet(() -> Mono.error(ex));
+    }
+
+    private void refreshStaleProducts() {
+        var productIds = fallbackStore.getServedStale();
+        if (productIds.isEmpty()) {
+            return;
         }
 
-        var fallback = new Product(productId, "Fallback product" + productId, productId, serviceUtil.getServiceAddress());
-        return Mono.just(fallback);
+        LOG.info("The product service has recovered, will refresh {} stale products", productIds.size());
+        Flux.fromIterable(productIds)
+            .buffer(STALE_REFRESH_BATCH_SIZE)
+            .concatMap(batch -> requestProducts(new HttpHeaders(), batch)
+                .collectList()
+                .doOnNext(products -> {
+                    products.forEach(fallbackStore::put);
+                    // Products no longer returned have been deleted meanwhile
+                    var found = products.stream().map(Product::getProductId).toList();
+                    batch.stream().filter(id -> !found.contains(id)).forEach(fallbackStore::invalidate);
+                })
+                .onErrorResume(ex -> {
+                    LOG.warn("Failed to refresh stale products, will retry on the next recovery: {}", ex.toString());
+                    return Mono.empty();
+                }))
+            .subscribe();
+    }
+
+    @Override
+    @Retry(name = "product")
+    @TimeLimiter(name = "product")
+    @CircuitBreaker(name = "product")
+    public Flux<Product> getProducts(HttpHeaders headers, List<Integer> productIds) {
+        return requestProducts(headers, productIds)
+            .doOnNext(fallbackStore::put)
+            .log(LOG.getName(), Level.FINE)
+            .onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+    }
+
+    private Flux<Product> requestProducts(HttpHeaders headers, List<Integer> productIds) {
+        var url = UriComponentsBuilder.fromUriString(
+            PRODUCT_SERVICE_URL + "/product?productIds={productIds}"
+        ).build(joinIds(productIds));
+        LOG.debug("Will call getProducts API on URL: {}", url);
+
+        return webClient.get()
+            .uri(url)
+            .headers(h -> h.addAll(headers))
+            .retrieve()
+            .bodyToFlux(Product.class);
     }
 
     @Override
@@ -130,6 +259,14 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
         }).subscribeOn(publishEventScheduler);
     }
 
+    @Override
+    public Flux<Recommendation> createRecommendations(List<Recommendation> body) {
+        return Mono.fromCallable(() -> {
+            sendMessages("recommendations-out-0", toCreateEvents(body, Recommendation::getProductId));
+            return body;
+        }).flatMapMany(Flux::fromIterable).subscribeOn(publishEventScheduler);
+    }
+
     @Override
     public Flux<Recommendation> getRecommendations(HttpHeaders headers, int productId) {
         var url = UriComponentsBuilder.fromUriString(
@@ -137,6 +274,75 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
         ).build(productId);
         LOG.debug("Will call getRecommendations API on URL: {}", url);
 
+        return coalescer.coalesce("getRecommendations", url + " " + headers, () -> {
+                if (recommendationBatcher != null && productId > 0 && headers.isEmpty()) {
+                    return recommendationBatcher.load(productId).collectList();
+                }
+                return webClient.get()
+                    .uri(url)
+                    .headers(h -> h.addAll(headers))
+                    .retrieve()
+                    .bodyToFlux(Recommendation.class)
+                    .collectList();
+            })
+            .flatMapMany(Flux::fromIterable)
+            .log(LOG.getName(), Level.FINE)
+            .onErrorResume(error -> {
+                LOG.warn("Got an error while requesting recommendations, return zero recommendations: {}", error.getMessage());
+                return Flux.empty();
+            });
+    }
+
+    @Override
+    public Flux<Recommendation> getRecommendations(HttpHeaders headers, int productId, int limit, int afterId) {
+        var url = UriComponentsBuilder.fromUriString(
+            RECOMMENDATION_SERVICE_URL + "/recommendation?productId={productId}&limit={limit}&afterId={afterId}"
+        ).build(productId, limit, afterId);
+        LOG.debug("Will call getRecommendations API on URL: {}", url);
+
+        return coalescer.coalesce("getRecommendations", url + " " + headers, () -> {
+                // Not micro-batched, since a batched lookup would read all recommendations of the product for one page
+                return webClient.get()
+                    .uri(url)
+                    .headers(h -> h.addAll(headers))
+                    .retrieve()
+                    .bodyToFlux(Recommendation.class)
+                    .collectList();
+            })
+            .flatMapMany(Flux::fromIterable)
+            .log(LOG.getName(), Level.FINE)
+            .onErrorResume(error -> {
+                LOG.warn("Got an error while requesting recommendations, return zero recommendations: {}", error.getMessage());
+                return Flux.empty();
+            });
+    }
+
+    @Override
+    public Flux<Recommendation> getRecommendations(HttpHeaders headers, List<Integer> productIds) {
+        var url = UriComponentsBuilder.fromUriString(
+            RECOMMENDATION_SERVICE_URL + "/recommendation?productIds={productIds}"
+        ).build(joinIds(productIds));
+        LOG.debug("Will call getRecommendations API on URL: {}", url);
+
+        return webClient.get()
+            .uri(url)
+            .headers(h -> h.addAll(headers))
+            .retrieve()
+            .bodyToFlux(Recommendation.class)
+            .log(LOG.getName(), Level.FINE)
+            .onErrorResume(error -> {
+                LOG.warn("Got an error while requesting recommendations, return zero recommendations: {}", error.getMessage());
+                return Flux.empty();
+            });
+    }
+
+    @Override
+    public Flux<Recommendation> getRecommendations(HttpHeaders headers, List<Integer> productIds, int limit) {
+        var url = UriComponentsBuilder.fromUriString(
+            RECOMMENDATION_SERVICE_URL + "/recommendation?productIds={productIds}&limit={limit}"
+        ).build(joinIds(productIds), limit);
+        LOG.debug("Will call getRecommendations API on URL: {}", url);
+
         return webClient.get()
             .uri(url)
             .headers(h -> h.addAll(headers))
@@ -166,6 +372,14 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
         }).subscribeOn(publishEventScheduler);
     }
 
+    @Override
+    public Flux<Review> createReviews(List<Review> body) {
+        return Mono.fromCallable(() -> {
+            sendMessages("reviews-out-0", toCreateEvents(body, Review::getProductId));
+            return body;
+        }).flatMapMany(Flux::fromIterable).subscribeOn(publishEventScheduler);
+    }
+
     @Override
     public Flux<Review> getReviews(HttpHeaders headers, int productId) {
         var url = UriComponentsBuilder.fromUriString(
@@ -173,13 +387,82 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
         ).build(productId);
         LOG.debug("Will call getReviews API on URL: {}", url);
 
+        return coalescer.coalesce("getReviews", url + " " + headers, () -> {
+                if (reviewBatcher != null && productId > 0 && headers.isEmpty()) {
+                    return reviewBatcher.load(productId).collectList();
+                }
+                return webClient.get()
+                    .uri(url)
+                    .headers(h -> h.addAll(headers))
+                    .retrieve()
+                    .bodyToFlux(Review.class)
+                    .collectList();
+            })
+            .flatMapMany(Flux::fromIterable)
+            .log(LOG.getName(), Level.FINE)
+            .onErrorResume(error -> { 
+                LOG.warn("Got an error while requesting reviews, return zero reviews: {}", error.getMessage());
+                return Flux.empty();
+            });
+    }
+
+    @Override
+    public Flux<Review> getReviews(HttpHeaders headers, int productId, int limit, int afterId) {
+        var url = UriComponentsBuilder.fromUriString(
+            REVIEW_SERVICE_URL + "/review?productId={productId}&limit={limit}&afterId={afterId}"
+        ).build(productId, limit, afterId);
+        LOG.debug("Will call getReviews API on URL: {}", url);
+
+        return coalescer.coalesce("getReviews", url + " " + headers, () -> {
+                // Not micro-batched, since a batched lookup would read all reviews of the product for one page
+                return webClient.get()
+                    .uri(url)
+                    .headers(h -> h.addAll(headers))
+                    .retrieve()
+                    .bodyToFlux(Review.class)
+                    .collectList();
+            })
+            .flatMapMany(Flux::fromIterable)
+            .log(LOG.getName(), Level.FINE)
+            .onErrorResume(error -> {
+                LOG.warn("Got an error while requesting reviews, return zero reviews: {}", error.getMessage());
+                return Flux.empty();
+            });
+    }
+
+    @Override
+    public Flux<Review> getReviews(HttpHeaders headers, List<Integer> productIds) {
+        var url = UriComponentsBuilder.fromUriString(
+            REVIEW_SERVICE_URL + "/review?productIds={productIds}"
+        ).build(joinIds(productIds));
+        LOG.debug("Will call getReviews API on URL: {}", url);
+
         return webClient.get()
             .uri(url)
             .headers(h -> h.addAll(headers))
             .retrieve()
             .bodyToFlux(Review.class)
             .log(LOG.getName(), Level.FINE)
-            .onErrorResume(error -> { 
+            .onErrorResume(error -> {
+                LOG.warn("Got an error while requesting reviews, return zero reviews: {}", error.getMessage());
+                return Flux.empty();
+            });
+    }
+
+    @Override
+    public Flux<Review> getReviews(HttpHeaders headers, List<Integer> productIds, int limit) {
+        var url = UriComponentsBuilder.fromUriString(
+            REVIEW_SERVICE_URL + "/review?productIds={productIds}&limit={limit}"
+        ).build(joinIds(productIds), limit);
+        LOG.debug("Will call getReviews API on URL: {}", url);
+
+        return webClient.get()
+            .uri(url)
+            .headers(h -> h.addAll(headers))
+            .retrieve()
+            .bodyToFlux(Review.class)
+            .log(LOG.getName(), Level.FINE)
+            .onErrorResume(error -> {
                 LOG.warn("Got an error while requesting reviews, return zero reviews: {}", error.getMessage());
                 return Flux.empty();
             });
@@ -193,12 +476,47 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
         }).subscribeOn(publishEventScheduler).then();
     }
 
-    private void sendMessage(String bindingName, Event event) {
-        LOG.debug("Sending a {} message to {}", event.getEventType(), bindingName);
-        var message = MessageBuilder.withPayload(event)
-            .setHeader("partitionKey", event.getKey())
-            .build();
-        streamBridge.send(bindingName, message);
+    private String joinIds(List<Integer> productIds) {
+        return productIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    /**
+     * The data of a product is sent in CREATE_BATCH events of up to eventBatchMaxSize items, a single item in a CREATE event.
+     * The events keep the productId as key, so they stay in order with the other events of the product.
+     */
+    private <T> List<Event<Integer, T>> toCreateEvents(List<T> body, ToIntFunction<T> productIdOf) {
+        var byProductId = body.stream()
+            .collect(Collectors.groupingBy(productIdOf::applyAsInt, LinkedHashMap::new, Collectors.toList()));
+
+        var events = new ArrayList<Event<Integer, T>>();
+        byProductId.forEach((productId, items) -> {
+            for (int from = 0; from < items.size(); from += eventBatchMaxSize) {
+                var batch = items.subList(from, Math.min(from + eventBatchMaxSize, items.size()));
+                events.add(batch.size() == 1
+                    ? new Event<>(Type.CREATE, productId, batch.get(0))
+                    : Event.batch(productId, List.copyOf(batch)));
+            }
+        });
+        return events;
+    }
+
+    private void sendMessage(String bindingName, Event<Integer, ?> event) {
+        sendMessages(bindingName, List.of(event));
+    }
+
+    // With the outbox, the events are only appended here and published by the outbox in the background
+    private void sendMessages(String bindingName, List<? extends Event<Integer, ?>> events) {
+        if (outbox.isEnabled()) {
+            LOG.debug("Appending {} messages for {} to the outbox", events.size(), bindingName);
+            outbox.append(bindingName, events);
+            return;
+        }
+
+        events.forEach(event -> {
+            LOG.debug("Sending a {} message to {}", event.getEventType(), bindingName);
+            eventSender.send(bindingName, event);
+        });
+        eventSender.recordGroup(bindingName, events.size());
     }
 
     private Throwable handleException(Throwable ex) {
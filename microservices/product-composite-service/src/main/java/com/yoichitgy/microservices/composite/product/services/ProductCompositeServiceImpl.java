@@ -1,22 +1,40 @@
 package com.yoichitgy.microservices.composite.product.services;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yoichitgy.api.composite.product.ProductAggregate;
+import com.yoichitgy.api.composite.product.ProductAggregates;
 import com.yoichitgy.api.composite.product.ProductCompositeService;
+import com.yoichitgy.api.composite.product.ProductIngestResult;
+import com.yoichitgy.api.composite.product.ProductIngestResult.Status;
 import com.yoichitgy.api.composite.product.RecommendationSummary;
 import com.yoichitgy.api.composite.product.ReviewSummary;
 import com.yoichitgy.api.composite.product.ServiceAddresses;
 import com.yoichitgy.api.core.product.Product;
 import com.yoichitgy.api.core.recommendation.Recommendation;
 import com.yoichitgy.api.core.review.Review;
+import com.yoichitgy.api.exceptions.DeadlineExceededException;
+import com.yoichitgy.api.exceptions.InvalidInputException;
+import com.yoichitgy.util.http.Deadline;
 import com.yoichitgy.util.http.ServiceUtil;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
@@ -25,21 +43,62 @@ import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextImpl;
 import org.springframework.web.bind.annotation.RestController;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.function.Tuple2;
 
 @RestController
 public class ProductCompositeServiceImpl implements ProductCompositeService {
     private static final Logger LOG = LoggerFactory.getLogger(ProductCompositeServiceImpl.class);
 
+    private static final String PRODUCT = "product";
+    private static final String RECOMMENDATIONS = "recommendations";
+    private static final String REVIEWS = "reviews";
+    private static final Set<String> ALL_SECTIONS = Set.of(PRODUCT, RECOMMENDATIONS, REVIEWS);
+
     private final SecurityContext nullSecCtx = new SecurityContextImpl();
 
     private final ServiceUtil serviceUtil;
     private final ProductCompositeIntegration integration;
+    private final ProductAggregateCache cache;
+    private final ObjectMapper mapper;
+    private final int maxBatchSize;
+    private final int ingestBatchSize;
+    private final Duration ingestMaxWait;
+    private final int pageSize;
+    private final Duration deadline;
+    private final Duration recommendationsBudget;
+    private final Duration reviewsBudget;
     
     @Autowired
-    public ProductCompositeServiceImpl(ServiceUtil serviceUtil, ProductCompositeIntegration integration) {
+    public ProductCompositeServiceImpl(
+        ServiceUtil serviceUtil,
+        ProductCompositeIntegration integration,
+        ProductAggregateCache cache,
+        ObjectMapper mapper,
+        @Value("${app.maxBatchSize:100}") int maxBatchSize,
+        @Value("${app.ingest.batchSize:500}") int ingestBatchSize,
+        @Value("${app.ingest.maxWait:100ms}") Duration ingestMaxWait,
+        @Value("${app.pageSize:100}") int pageSize,
+        @Value("${app.timeBudget.deadline:150ms}") Duration deadline,
+        @Value("${app.timeBudget.recommendations:100ms}") Duration recommendationsBudget,
+        @Value("${app.timeBudget.reviews:100ms}") Duration reviewsBudget
+    ) {
+        LOG.info("Creates a productCompositeService with deadline = {}, recommendationsBudget = {}, reviewsBudget = {}",
+            deadline, recommendationsBudget, reviewsBudget);
+
         this.serviceUtil = serviceUtil;
         this.integration = integration;
+        this.cache = cache;
+        this.mapper = mapper;
+        this.maxBatchSize = maxBatchSize;
+        this.ingestBatchSize = ingestBatchSize;
+        this.ingestMaxWait = ingestMaxWait;
+        this.pageSize = pageSize;
+        this.deadline = deadline;
+        this.recommendationsBudget = recommendationsBudget;
+        this.reviewsBudget = reviewsBudget;
     }
 
     @Override
@@ -52,37 +111,15 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
             int productId = body.getProductId();
             LOG.debug("createCompositeProduct: creates a new composite entity for productId: {}", productId);
 
-            var product = new Product(productId, body.getName(), body.getWeight(), null);
-            monoList.add(integration.createProduct(product));
-
-            var recommendations = body.getRecommendations();
-            if (recommendations != null) {
-                recommendations.forEach(r -> {
-                    var recommendation = new Recommendation(
-                        productId,
-                        r.getRecommendationId(),
-                        r.getAuthor(),
-                        r.getRate(),
-                        r.getContent(),
-                        null
-                    );
-                    monoList.add(integration.createRecommendation(recommendation));
-                });
+            monoList.add(integration.createProduct(toProduct(body)));
+            // The recommendations and the reviews are each sent in one CREATE_BATCH event
+            var recommendations = toRecommendations(body);
+            if (!recommendations.isEmpty()) {
+                monoList.add(integration.createRecommendations(recommendations).collectList());
             }
-
-            var reviews = body.getReviews();
-            if (reviews != null) {
-                reviews.forEach(r -> {
-                    var review = new Review(
-                        productId,
-                        r.getReviewId(),
-                        r.getAuthor(),
-                        r.getSubject(),
-                        r.getContent(),
-                        null
-                    );
-                    monoList.add(integration.createReview(review));
-                });
+            var reviews = toReviews(body);
+            if (!reviews.isEmpty()) {
+                monoList.add(integration.createReviews(reviews).collectList());
             }
 
             LOG.debug("createCompositeProduct: composite entities created for productId: {}", productId);
@@ -97,25 +134,371 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
     }
 
     @Override
-    public Mono<ProductAggregate> getProduct(HttpHeaders requestHeaders, int productId, int delay, int faultPercent) {
-        LOG.info("Will get composite product info for product.id={}", productId);
+    public Flux<ProductIngestResult> createProducts(Flux<String> body) {
+        return getLogAuthorizationInMono().thenMany(Flux.defer(() -> {
+            // A line is only read with a permit, and a batch returns its permits once published, so that the body
+            // is not read faster than its events are published. A slow body still has its lines published after
+            // ingestMaxWait. bufferTimeout emits on its timer regardless of the demand, the batches are queued,
+            // bounded by the permits
+            var permits = Sinks.many().unicast().<Boolean>onBackpressureBuffer();
+            IntStream.range(0, 2 * ingestBatchSize).forEach(i -> permits.tryEmitNext(true));
+            return body
+                .index()
+                .filter(line -> !line.getT2().isBlank())
+                .map(line -> parseIngestLine(line.getT1() + 1, line.getT2()))
+                .zipWith(permits.asFlux(), 1)
+                .map(Tuple2::getT1)
+                .bufferTimeout(ingestBatchSize, ingestMaxWait)
+                .onBackpressureBuffer()
+                // Returned before the batch completes, i.e. before the next batch starts, so the permits are never
+                // emitted concurrently
+                .concatMap(lines -> ingestBatch(lines)
+                    .doOnComplete(() -> IntStream.range(0, lines.size()).forEach(i -> permits.tryEmitNext(true))), 1);
+        }));
+    }
+
+    private IngestLine parseIngestLine(long number, String line) {
+        try {
+            var aggregate = mapper.readValue(line, ProductAggregate.class);
+            if (aggregate.getProductId() < 1) {
+                return new IngestLine(number, aggregate, "Invalid productId: " + aggregate.getProductId());
+            }
+            return new IngestLine(number, aggregate, null);
+        } catch (JsonProcessingException ex) {
+            return new IngestLine(number, null, "Invalid JSON: " + ex.getOriginalMessage());
+        }
+    }
+
+    private Flux<ProductIngestResult> ingestBatch(List<IngestLine> lines) {
+        var aggregates = lines.stream().filter(line -> line.error() == null).map(IngestLine::aggregate).toList();
+        LOG.debug("createCompositeProducts: creates {} composite products from a batch of {} lines", aggregates.size(), lines.size());
 
+        // The events of a batch are published with one call per core service
+        var published = aggregates.isEmpty() ? Mono.<Void>empty() : Mono.when(
+            integration.createProducts(aggregates.stream().map(this::toProduct).toList()),
+            integration.createRecommendations(aggregates.stream().flatMap(a -> toRecommendations(a).stream()).toList()),
+            integration.createReviews(aggregates.stream().flatMap(a -> toReviews(a).stream()).toList())
+        );
+
+        return published
+            .then(Mono.fromCallable(() -> lines.stream().map(line -> line.toResult(Status.ACCEPTED, null)).toList()))
+            .onErrorResume(ex -> {
+                LOG.warn("createCompositeProducts failed for a batch of {} lines: {}", lines.size(), ex.toString());
+                return Mono.just(lines.stream().map(line -> line.toResult(Status.FAILED, ex.getMessage())).toList());
+            })
+            .flatMapIterable(Function.identity());
+    }
+
+    // A line of a bulk ingest body, rejected if error is set
+    private record IngestLine(long number, ProductAggregate aggregate, String error) {
+        ProductIngestResult toResult(Status status, String message) {
+            var productId = aggregate != null ? aggregate.getProductId() : null;
+            return error != null
+                ? new ProductIngestResult(number, productId, Status.REJECTED, error)
+                : new ProductIngestResult(number, productId, status, message);
+        }
+    }
+
+    private Product toProduct(ProductAggregate body) {
+        return new Product(body.getProductId(), body.getName(), body.getWeight(), null);
+    }
+
+    private List<Recommendation> toRecommendations(ProductAggregate body) {
+        if (body.getRecommendations() == null) {
+            return List.of();
+        }
+        return body.getRecommendations().stream()
+            .map(r -> new Recommendation(body.getProductId(), r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent(), null))
+            .toList();
+    }
+
+    private List<Review> toReviews(ProductAggregate body) {
+        if (body.getReviews() == null) {
+            return List.of();
+        }
+        return body.getReviews().stream()
+            .map(r -> new Review(body.getProductId(), r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent(), null))
+            .toList();
+    }
+
+    @Override
+    public Mono<ProductAggregate> getProduct(
+        HttpHeaders requestHeaders,
+        int productId,
+        int delay,
+        int faultPercent,
+        List<String> fields,
+        String pageToken
+    ) {
+        LOG.info("Will get composite product info for product.id={}, fields={}", productId, fields);
+
+        // A page token selects its own section, the other sections were returned with the first page
+        var page = pageToken == null ? null : getPageToken(pageToken, productId);
+        var sections = page == null ? getSections(fields) : Set.of(page.getSection());
         var headers = getHeaders(requestHeaders, "X-group");
-        return Mono.zip(
-                getLogAuthorizationInMono(),
-                integration.getProduct(headers, productId, delay, faultPercent),
-                integration.getRecommendations(headers, productId).collectList(),
-                integration.getReviews(headers, productId).collectList()
-            ).map(values -> {
-                var product = values.getT2();
-                var recommendations = values.getT3();
-                var reviews = values.getT4();
-                var address = serviceUtil.getServiceAddress();
-                return createProductAggregate(product, recommendations, reviews, address);
-            }).doOnError(ex -> LOG.warn("getCompositeProduct failed: {}", ex.toString()))
+
+        // Requests routed to a specific group or asking for delays and faults are used for testing,
+        // so they always go to the core services, as do requests with "Cache-Control: no-cache"
+        var useCache = page == null && headers.isEmpty() && delay == 0 && faultPercent == 0 && !isNoCache(requestHeaders);
+        Mono<ProductAggregate> aggregate;
+        if (!useCache) {
+            aggregate = getProductAggregate(headers, productId, delay, faultPercent, sections, page);
+        } else if (sections.equals(ALL_SECTIONS)) {
+            aggregate = cache.get(
+                productId,
+                () -> getProductAggregate(headers, productId, delay, faultPercent, ALL_SECTIONS, null),
+                this::isCacheable
+            );
+        } else {
+            // Only complete aggregates are cached, so a partial one is taken from the cache but never put in it
+            aggregate = cache.getIfPresent(productId)
+                .map(cached -> project(cached, sections))
+                .switchIfEmpty(Mono.defer(() -> getProductAggregate(headers, productId, delay, faultPercent, sections, null)));
+        }
+
+        return getLogAuthorizationInMono()
+            .then(aggregate)
+            .doOnError(ex -> LOG.warn("getCompositeProduct failed: {}", ex.toString()))
             .log(LOG.getName(), Level.FINE);
     }
 
+    private Mono<ProductAggregate> getProductAggregate(
+        HttpHeaders headers,
+        int productId,
+        int delay,
+        int faultPercent,
+        Set<String> sections,
+        PageToken page
+    ) {
+        // Only the requested sections are looked up. The product is required if requested and fails the request
+        // at the deadline, recommendations and reviews are left out if they do not arrive within their budgets.
+        // One more recommendation and review than a page is looked up, to know if there is a next page
+        return withinDeadline(deadline -> {
+            var product = sections.contains(PRODUCT)
+                ? required(PRODUCT, integration.getProduct(headers, productId, delay, faultPercent), deadline).map(Optional::of)
+                : Mono.just(Optional.<Product>empty());
+            var recommendations = sections.contains(RECOMMENDATIONS)
+                ? withinBudget(
+                    RECOMMENDATIONS,
+                    integration.getRecommendations(headers, productId, pageSize + 1, getAfterId(page, RECOMMENDATIONS)).collectList(),
+                    recommendationsBudget,
+                    deadline
+                )
+                : Mono.just(Optional.<List<Recommendation>>empty());
+            var reviews = sections.contains(REVIEWS)
+                ? withinBudget(
+                    REVIEWS,
+                    integration.getReviews(headers, productId, pageSize + 1, getAfterId(page, REVIEWS)).collectList(),
+                    reviewsBudget,
+                    deadline
+                )
+                : Mono.just(Optional.<List<Review>>empty());
+            return Mono.zip(product, recommendations, reviews);
+        }).map(values -> {
+            var address = serviceUtil.getServiceAddress();
+            var recommendationList = sections.contains(RECOMMENDATIONS) ? values.getT2().orElseGet(List::of) : null;
+            var reviewList = sections.contains(REVIEWS) ? values.getT3().orElseGet(List::of) : null;
+            return createProductAggregate(
+                productId,
+                values.getT1().orElse(null),
+                getFirstPage(recommendationList),
+                getFirstPage(reviewList),
+                address,
+                getIncompleteSections(sections, values.getT2(), values.getT3()),
+                getNextPageToken(RECOMMENDATIONS, productId, recommendationList, Recommendation::getRecommendationId),
+                getNextPageToken(REVIEWS, productId, reviewList, Review::getReviewId)
+            );
+        });
+    }
+
+    private PageToken getPageToken(String pageToken, int productId) {
+        var page = PageToken.decode(pageToken);
+        var section = page.getSection();
+        if (page.getProductId() != productId || !(section.equals(RECOMMENDATIONS) || section.equals(REVIEWS))) {
+            throw new InvalidInputException("Invalid pageToken: " + pageToken);
+        }
+        return page;
+    }
+
+    private int getAfterId(PageToken page, String section) {
+        return (page != null && page.getSection().equals(section)) ? page.getAfterId() : 0;
+    }
+
+    private <T> List<T> getFirstPage(List<T> items) {
+        return (items == null || items.size() <= pageSize) ? items : items.subList(0, pageSize);
+    }
+
+    private <T> String getNextPageToken(String section, int productId, List<T> items, ToIntFunction<T> idOf) {
+        if (items == null || items.size() <= pageSize) {
+            return null;
+        }
+        return new PageToken(section, productId, idOf.applyAsInt(items.get(pageSize - 1))).encode();
+    }
+
+    private Set<String> getSections(List<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return ALL_SECTIONS;
+        }
+        fields.stream().filter(field -> !ALL_SECTIONS.contains(field)).findFirst().ifPresent(field -> {
+            throw new InvalidInputException("Invalid field: " + field + ", valid fields are product, recommendations and reviews");
+        });
+        return Set.copyOf(fields);
+    }
+
+    private ProductAggregate project(ProductAggregate aggregate, Set<String> sections) {
+        var includeProduct = sections.contains(PRODUCT);
+        var includeRecommendations = sections.contains(RECOMMENDATIONS);
+        var includeReviews = sections.contains(REVIEWS);
+        var addresses = aggregate.getServiceAddresses();
+        return new ProductAggregate(
+            aggregate.getProductId(),
+            includeProduct ? aggregate.getName() : null,
+            includeProduct ? aggregate.getWeight() : 0,
+            includeRecommendations ? aggregate.getRecommendations() : null,
+            includeReviews ? aggregate.getReviews() : null,
+            new ServiceAddresses(
+                addresses.getComposite(),
+                includeProduct ? addresses.getProduct() : "",
+                includeRecommendations ? addresses.getRecommendation() : "",
+                includeReviews ? addresses.getReview() : ""
+            ),
+            aggregate.isStale(),
+            aggregate.getIncompleteSections(),
+            includeRecommendations ? aggregate.getRecommendationsNextPageToken() : null,
+            includeReviews ? aggregate.getReviewsNextPageToken() : null
+        );
+    }
+
+    @Override
+    public Mono<ProductAggregates> getProducts(HttpHeaders requestHeaders, List<Integer> productIds) {
+        var ids = productIds.stream().distinct().toList();
+        LOG.info("Will get composite product info for {} products", ids.size());
+
+        if (ids.size() > maxBatchSize) {
+            throw new InvalidInputException("Too many productIds: " + ids.size() + ", max is " + maxBatchSize);
+        }
+        ids.stream().filter(id -> id < 1).findFirst().ifPresent(id -> {
+            throw new InvalidInputException("Invalid productId: " + id);
+        });
+
+        var headers = getHeaders(requestHeaders, "X-group");
+        var aggregates = headers.isEmpty()
+            ? cache.getAll(ids, missingIds -> getProductAggregates(headers, missingIds), this::isCacheable)
+            : getProductAggregates(headers, ids);
+
+        return getLogAuthorizationInMono()
+            .then(aggregates)
+            .map(found -> new ProductAggregates(
+                ids.stream().filter(found::containsKey).map(found::get).toList(),
+                ids.stream().filter(id -> !found.containsKey(id)).toList()
+            ))
+            .doOnError(ex -> LOG.warn("getCompositeProducts failed: {}", ex.toString()))
+            .log(LOG.getName(), Level.FINE);
+    }
+
+    private Mono<Map<Integer, ProductAggregate>> getProductAggregates(HttpHeaders headers, List<Integer> productIds) {
+        return withinDeadline(deadline -> Mono.zip(
+                required(PRODUCT, integration.getProducts(headers, productIds).collectList(), deadline),
+                withinBudget(
+                    RECOMMENDATIONS,
+                    integration.getRecommendations(headers, productIds, pageSize + 1).collectMultimap(Recommendation::getProductId),
+                    recommendationsBudget,
+                    deadline
+                ),
+                withinBudget(
+                    REVIEWS,
+                    integration.getReviews(headers, productIds, pageSize + 1).collectMultimap(Review::getProductId),
+                    reviewsBudget,
+                    deadline
+                )
+            )).map(values -> {
+                var products = values.getT1();
+                var recommendations = values.getT2();
+                var reviews = values.getT3();
+                var address = serviceUtil.getServiceAddress();
+                var incompleteSections = getIncompleteSections(ALL_SECTIONS, recommendations, reviews);
+                return products.stream()
+                    .map(product -> {
+                        // A page plus one of each product is returned in order, as for getProduct
+                        var productId = product.getProductId();
+                        var recommendationList = recommendations.map(r -> r.get(productId)).orElseGet(List::of).stream().toList();
+                        var reviewList = reviews.map(r -> r.get(productId)).orElseGet(List::of).stream().toList();
+                        return createProductAggregate(
+                            productId,
+                            product,
+                            getFirstPage(recommendationList),
+                            getFirstPage(reviewList),
+                            address,
+                            incompleteSections,
+                            getNextPageToken(RECOMMENDATIONS, productId, recommendationList, Recommendation::getRecommendationId),
+                            getNextPageToken(REVIEWS, productId, reviewList, Review::getReviewId)
+                        );
+                    })
+                    .collect(Collectors.toMap(ProductAggregate::getProductId, Function.identity(), (a1, a2) -> a1));
+            });
+    }
+
+    private boolean isCacheable(ProductAggregate aggregate) {
+        // A stale product from the fallback store must not be served after the product service recovers,
+        // and sections left out of an incomplete aggregate must be looked up again
+        return !aggregate.isStale() && aggregate.getIncompleteSections().isEmpty();
+    }
+
+    /**
+     * Looks up the components of an aggregate within the deadline, which starts now or is the caller's if earlier.
+     * The deadline is put in the context, so that it is also propagated to the core services.
+     */
+    private <T> Mono<T> withinDeadline(Function<Instant, Mono<T>> lookup) {
+        return Mono.deferContextual(context -> {
+            var ownDeadline = Instant.now().plus(deadline);
+            var requestDeadline = Deadline.get(context).filter(d -> d.isBefore(ownDeadline)).orElse(ownDeadline);
+            return lookup.apply(requestDeadline).contextWrite(c -> Deadline.put(c, requestDeadline));
+        });
+    }
+
+    // The time limiter and retries of a component are cut short at the deadline
+    private <T> Mono<T> required(String section, Mono<T> component, Instant deadline) {
+        return component.timeout(remaining(deadline), Mono.error(() -> {
+            LOG.warn("No {} before the deadline, will fail the request", section);
+            return new DeadlineExceededException("No " + section + " before the deadline");
+        }));
+    }
+
+    private <T> Mono<Optional<T>> withinBudget(String section, Mono<T> component, Duration budget, Instant deadline) {
+        var timeout = min(budget, remaining(deadline));
+        return component
+            .map(Optional::of)
+            .timeout(timeout, Mono.fromSupplier(() -> {
+                LOG.warn("No {} within the time budget of {}, will return an incomplete product aggregate", section, timeout);
+                return Optional.empty();
+            }));
+    }
+
+    private static Duration remaining(Instant deadline) {
+        var remaining = Deadline.remaining(deadline);
+        return remaining.isNegative() ? Duration.ZERO : remaining;
+    }
+
+    private List<String> getIncompleteSections(Set<String> sections, Optional<?> recommendations, Optional<?> reviews) {
+        var incompleteSections = new ArrayList<String>();
+        if (sections.contains(RECOMMENDATIONS) && recommendations.isEmpty()) {
+            incompleteSections.add(RECOMMENDATIONS);
+        }
+        if (sections.contains(REVIEWS) && reviews.isEmpty()) {
+            incompleteSections.add(REVIEWS);
+        }
+        return incompleteSections;
+    }
+
+    private static Duration min(Duration d1, Duration d2) {
+        return d1.compareTo(d2) <= 0 ? d1 : d2;
+    }
+
+    private boolean isNoCache(HttpHeaders requestHeaders) {
+        var cacheControl = requestHeaders.getCacheControl();
+        return cacheControl != null && cacheControl.contains("no-cache");
+    }
+
     private HttpHeaders getHeaders(HttpHeaders requestHeaders, String... headers) {
         LOG.trace("Will look for {} headers: {}", headers.length, headers);
         var h = new HttpHeaders();
@@ -149,14 +532,18 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
     }
 
     private ProductAggregate createProductAggregate(
+        int productId,
         Product product,
         List<Recommendation> recommendations,
         List<Review> reviews,
-        String serviceAddress
+        String serviceAddress,
+        List<String> incompleteSections,
+        String recommendationsNextPageToken,
+        String reviewsNextPageToken
     ) {
-        var productId = product.getProductId();
-        var name = product.getName();
-        var weight = product.getWeight();
+        // The product, recommendations and reviews are null if they were not requested
+        var name = product == null ? null : product.getName();
+        var weight = product == null ? 0 : product.getWeight();
 
         var recommendationSummaries = recommendations == null ? null : recommendations.stream()
             .map(r -> new RecommendationSummary(r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent()))
@@ -166,12 +553,23 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
             .toList();
         var serviceAddresses = new ServiceAddresses(
             serviceAddress,
-            product.getServiceAddress(),
+            product == null ? "" : product.getServiceAddress(),
             (recommendations == null || recommendations.isEmpty()) ? "" : recommendations.get(0).getServiceAddress(),
             (reviews == null || reviews.isEmpty()) ? "" : reviews.get(0).getServiceAddress()
         );
 
-        return new ProductAggregate(productId, name, weight, recommendationSummaries, reviewSummaries, serviceAddresses);
+        return new ProductAggregate(
+            productId,
+            name,
+            weight,
+            recommendationSummaries,
+            reviewSummaries,
+            serviceAddresses,
+            product != null && ProductFallbackStore.isStale(product),
+            incompleteSections,
+            recommendationsNextPageToken,
+            reviewsNextPageToken
+        );
     }
 
     private Mono<SecurityContext> getLogAuthorizationInMono() {
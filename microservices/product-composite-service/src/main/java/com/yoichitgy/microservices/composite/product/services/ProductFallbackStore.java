@@ -0,0 +1,101 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.yoichitgy.api.core.product.Product;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Last known good product responses, used by the circuit breaker fallback when the product service is not available.
+ *
+ * Unlike {@link ProductAggregateCache} entries do not expire, they are only replaced by newer responses or
+ * evicted by size. The productIds served stale are remembered, so that they can be refreshed once the
+ * product service has recovered.
+ */
+@Component
+public class ProductFallbackStore {
+    private static final Logger LOG = LoggerFactory.getLogger(ProductFallbackStore.class);
+
+    /**
+     * A last known good product served by the fallback. Staleness is only known to the composite,
+     * so it is not part of the core Product API.
+     */
+    static final class StaleProduct extends Product {
+        StaleProduct(Product product) {
+            super(product.getProductId(), product.getName(), product.getWeight(), product.getServiceAddress());
+        }
+    }
+
+    private final Cache<Integer, Product> store;
+    private final Set<Integer> servedStale = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public ProductFallbackStore(
+        @Value("${app.productFallbackStore.maximumSize:10000}") long maximumSize,
+        MeterRegistry meterRegistry
+    ) {
+        LOG.info("Creates a productFallbackStore with maximumSize = {}", maximumSize);
+
+        this.store = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, store, "productFallbacks");
+    }
+
+    public void put(Product product) {
+        if (isStale(product)) {
+            return;
+        }
+        store.put(product.getProductId(), product);
+        servedStale.remove(product.getProductId());
+    }
+
+    /**
+     * @return a copy of the last known good product marked as stale, if any
+     */
+    public Optional<Product> getStale(int productId) {
+        var product = store.getIfPresent(productId);
+        if (product == null) {
+            return Optional.empty();
+        }
+
+        LOG.debug("Serves a stale product for productId: {}", productId);
+        servedStale.add(productId);
+        return Optional.of(new StaleProduct(product));
+    }
+
+    public static boolean isStale(Product product) {
+        return product instanceof StaleProduct;
+    }
+
+    /**
+     * @return the productIds served stale since they were last refreshed
+     */
+    public List<Integer> getServedStale() {
+        return List.copyOf(servedStale);
+    }
+
+    public void invalidate(int productId) {
+        store.invalidate(productId);
+        servedStale.remove(productId);
+    }
+
+    public void invalidateAll() {
+        store.invalidateAll();
+        servedStale.clear();
+    }
+}
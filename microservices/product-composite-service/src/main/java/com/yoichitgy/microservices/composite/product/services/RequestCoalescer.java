@@ -0,0 +1,100 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import com.yoichitgy.util.http.Deadline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * Lets concurrent identical calls share one in-flight call, a.k.a. single-flight.
+ *
+ * A call is only shared while it is in flight, i.e. its result is never reused once it has completed.
+ * It does not belong to the caller that started it: it keeps running while any caller waits for it, and is only
+ * cancelled when no caller has waited for it during cancelGracePeriod, e.g. after timeouts or when hedged calls won.
+ *
+ * Only callers whose deadlines fall into the same deadlineBucket share a call, and the call runs with the end of
+ * the bucket as its deadline, so it is never cut short by the deadline of the caller that happened to start it.
+ * Each caller still gives up at its own deadline.
+ */
+@Component
+public class RequestCoalescer {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestCoalescer.class);
+
+    private final boolean enabled;
+    private final long deadlineBucketMillis;
+    private final Duration cancelGracePeriod;
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentMap<String, Mono<?>> inFlight = new ConcurrentHashMap<>();
+
+    @Autowired
+    public RequestCoalescer(
+        @Value("${app.requestCoalescing.enabled:true}") boolean enabled,
+        @Value("${app.requestCoalescing.deadlineBucket:50ms}") Duration deadlineBucket,
+        @Value("${app.requestCoalescing.cancelGracePeriod:20ms}") Duration cancelGracePeriod,
+        MeterRegistry meterRegistry
+    ) {
+        LOG.info("Creates a requestCoalescer with enabled = {}, deadlineBucket = {}, cancelGracePeriod = {}",
+            enabled, deadlineBucket, cancelGracePeriod);
+        this.enabled = enabled;
+        this.deadlineBucketMillis = Math.max(1, deadlineBucket.toMillis());
+        this.cancelGracePeriod = cancelGracePeriod;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @param operation name of the operation, used as a tag on the composite.requests.coalesced counter
+     * @param key identifies identical calls of the operation, must include everything that affects the result
+     * @param call creates the call, only invoked if no identical call is in flight
+     */
+    public <T> Mono<T> coalesce(String operation, String key, Supplier<Mono<T>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+
+        return Mono.deferContextual(context -> {
+            var deadline = Deadline.get(context).map(this::bucketEnd);
+            var inFlightKey = operation + ":" + key + deadline.map(d -> " deadline:" + d.toEpochMilli()).orElse("");
+            var created = new AtomicBoolean();
+            @SuppressWarnings("unchecked")
+            var shared = (Mono<T>)inFlight.computeIfAbsent(inFlightKey, k -> {
+                created.set(true);
+                var self = new AtomicReference<Mono<?>>();
+                var mono = withDeadline(call.get(), deadline)
+                    .doFinally(signal -> inFlight.remove(k, self.get()))
+                    .flux().publish().refCount(1, cancelGracePeriod)
+                    .singleOrEmpty();
+                self.set(mono);
+                return mono;
+            });
+
+            if (!created.get()) {
+                LOG.trace("Joins an in-flight call for {}", inFlightKey);
+                meterRegistry.counter("composite.requests.coalesced", "operation", operation).increment();
+            }
+            return shared;
+        });
+    }
+
+    private Instant bucketEnd(Instant deadline) {
+        return Instant.ofEpochMilli((deadline.toEpochMilli() / deadlineBucketMillis + 1) * deadlineBucketMillis);
+    }
+
+    private static <T> Mono<T> withDeadline(Mono<T> call, Optional<Instant> deadline) {
+        return deadline.map(d -> call.contextWrite(c -> Deadline.put(c, d))).orElse(call);
+    }
+}
@@ -0,0 +1,124 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Mono;
+
+/**
+ * Sends a second, hedged, call if the first one has not responded within a percentile of the observed latencies,
+ * the first response is used and the other call is cancelled.
+ *
+ * Hedged calls are limited by a budget: every call adds budget tokens, e.g. 0.05, and every hedged call takes one token,
+ * so hedging adds at most that share of extra calls.
+ */
+@Component
+public class RequestHedger {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestHedger.class);
+
+    // Tokens are counted in thousandths to keep the balance in an AtomicLong
+    private static final long TOKEN = 1000;
+    private static final long MAX_BALANCE = 10 * TOKEN;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final Duration minDelay;
+    private final long deposit;
+    private final MeterRegistry meterRegistry;
+    private final AtomicLong balance = new AtomicLong();
+
+    @Autowired
+    public RequestHedger(
+        @Value("${app.hedging.enabled:false}") boolean enabled,
+        @Value("${app.hedging.percentile:0.95}") double percentile,
+        @Value("${app.hedging.minDelay:10ms}") Duration minDelay,
+        @Value("${app.hedging.budget:0.05}") double budget,
+        MeterRegistry meterRegistry
+    ) {
+        LOG.info("Creates a requestHedger with enabled = {}, percentile = {}, minDelay = {}, budget = {}",
+            enabled, percentile, minDelay, budget);
+
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.deposit = Math.round(budget * TOKEN);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @param operation name of the operation, used as a tag on the composite.hedge metrics
+     * @param call creates the call, invoked a second time for the hedged call
+     */
+    public <T> Mono<T> hedge(String operation, Supplier<Mono<T>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+
+        return Mono.defer(() -> {
+            deposit();
+            var latency = getLatencyTimer(operation);
+            var hedgeDelay = getHedgeDelay(latency);
+            var start = System.nanoTime();
+
+            var hedged = Mono.delay(hedgeDelay).flatMap(t -> {
+                if (!withdraw()) {
+                    LOG.debug("No budget left to hedge {} after {}", operation, hedgeDelay);
+                    meterRegistry.counter("composite.hedge.requests", "operation", operation, "result", "skipped").increment();
+                    return Mono.<T>never();
+                }
+                LOG.debug("Hedges {} after {}", operation, hedgeDelay);
+                meterRegistry.counter("composite.hedge.requests", "operation", operation, "result", "sent").increment();
+                return call.get().doOnNext(value ->
+                    meterRegistry.counter("composite.hedge.requests", "operation", operation, "result", "won").increment()
+                );
+            });
+
+            return Mono.firstWithSignal(call.get(), hedged)
+                .doOnNext(value -> latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    private Timer getLatencyTimer(String operation) {
+        return Timer.builder("composite.hedge.latency")
+            .tag("operation", operation)
+            .publishPercentiles(percentile)
+            .distributionStatisticExpiry(Duration.ofMinutes(1))
+            .register(meterRegistry);
+    }
+
+    private Duration getHedgeDelay(Timer latency) {
+        for (var value : latency.takeSnapshot().percentileValues()) {
+            if (value.percentile() == percentile) {
+                var delay = Duration.ofNanos((long)value.value(TimeUnit.NANOSECONDS));
+                return delay.compareTo(minDelay) > 0 ? delay : minDelay;
+            }
+        }
+        return minDelay;
+    }
+
+    private void deposit() {
+        balance.updateAndGet(b -> Math.min(b + deposit, MAX_BALANCE));
+    }
+
+    private boolean withdraw() {
+        while (true) {
+            var b = balance.get();
+            if (b < TOKEN) {
+                return false;
+            }
+            if (balance.compareAndSet(b, b - TOKEN)) {
+                return true;
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.yoichitgy.microservices.composite.product.services;
 
+import com.yoichitgy.util.reactor.BlockingScheduler;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -7,28 +9,38 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import reactor.core.scheduler.Scheduler;
-import reactor.core.scheduler.Schedulers;
 
 @Configuration
 public class SchedulerConfiguration {
     private static final Logger LOG = LoggerFactory.getLogger(SchedulerConfiguration.class);
 
+    private final BlockingScheduler.Mode mode;
     private final Integer threadPoolSize;
     private final Integer taskQueueSize;
+    private final Integer maxConcurrency;
+    private final MeterRegistry meterRegistry;
   
     @Autowired
     public SchedulerConfiguration(
+        @Value("${app.scheduler.mode:bounded-elastic}") BlockingScheduler.Mode mode,
         @Value("${app.threadPoolSize:10}") Integer threadPoolSize,
-        @Value("${app.taskQueueSize:100}") Integer taskQueueSize
+        @Value("${app.taskQueueSize:100}") Integer taskQueueSize,
+        @Value("${app.scheduler.maxConcurrency:10}") Integer maxConcurrency,
+        MeterRegistry meterRegistry
     ) {
+        this.mode = mode;
         this.threadPoolSize = threadPoolSize;
         this.taskQueueSize = taskQueueSize;
+        this.maxConcurrency = maxConcurrency;
+        this.meterRegistry = meterRegistry;
     }
   
     @Bean
     public Scheduler publishEventScheduler() {
-        LOG.info("Creates a messagingScheduler with connectionPoolSize = {}", threadPoolSize);
-        return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "publish-pool");
+        LOG.info("Creates a messagingScheduler in mode {} with connectionPoolSize = {}, max concurrency = {}",
+            mode, threadPoolSize, maxConcurrency);
+        return BlockingScheduler.create(mode, "publish-pool", threadPoolSize, taskQueueSize, maxConcurrency, meterRegistry);
     }
 }
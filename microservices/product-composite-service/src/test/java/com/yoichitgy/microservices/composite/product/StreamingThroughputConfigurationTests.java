@@ -0,0 +1,56 @@
+package com.yoichitgy.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaExtendedBindingProperties;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Checks that the producer batching of the streaming_throughput profile in the config repo binds to the Kafka
+ * binder's properties. The throughput itself depends on the broker and is not measured here.
+ */
+class StreamingThroughputConfigurationTests {
+    private static final String CONFIG = "../../config-repo/product-composite.yml";
+    private static final String PROFILE = "streaming_throughput";
+
+    @Test
+    void producerBatchingPerBinding() throws IOException {
+        var binder = new Binder(ConfigurationPropertySources.from(profileDocument()));
+        var kafka = binder.bind("spring.cloud.stream.kafka", KafkaExtendedBindingProperties.class).get();
+
+        assertEquals(Map.of("linger.ms", "2", "batch.size", "32768", "compression.type", "lz4"),
+            producerConfiguration(kafka, "products-out-0"));
+        for (var binding : List.of("recommendations-out-0", "reviews-out-0")) {
+            assertEquals(Map.of("linger.ms", "10", "batch.size", "262144", "compression.type", "lz4"),
+                producerConfiguration(kafka, binding), binding);
+        }
+    }
+
+    @Test
+    void noRabbitBatching() throws IOException {
+        var binder = new Binder(ConfigurationPropertySources.from(profileDocument()));
+
+        assertFalse(binder.bind("spring.cloud.stream.rabbit", Map.class).isBound());
+    }
+
+    private static Map<String, String> producerConfiguration(KafkaExtendedBindingProperties kafka, String binding) {
+        return kafka.getBindings().get(binding).getProducer().getConfiguration();
+    }
+
+    private static PropertySource<?> profileDocument() throws IOException {
+        return new YamlPropertySourceLoader().load(CONFIG, new FileSystemResource(CONFIG)).stream()
+            .filter(document -> PROFILE.equals(document.getProperty("spring.config.activate.on-profile")))
+            .findFirst()
+            .orElseThrow(() -> new IllegalStateException("No " + PROFILE + " profile in " + CONFIG));
+    }
+}
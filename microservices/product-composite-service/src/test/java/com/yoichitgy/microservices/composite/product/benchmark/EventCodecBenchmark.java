@@ -0,0 +1,107 @@
+package com.yoichitgy.microservices.composite.product.benchmark;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yoichitgy.api.core.review.Review;
+import com.yoichitgy.api.event.Event;
+import com.yoichitgy.util.messaging.SmileEventMessageConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * Encode and decode cost of an event in the JSON path used by the bindings today and in the Smile codec,
+ * for a single review and for a CREATE_BATCH event of 50 reviews. Both paths produce and consume a message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EventCodecBenchmark {
+    static final Type EVENT_TYPE = new ParameterizedTypeReference<Event<Integer, Review>>() {}.getType();
+    static final MessageHeaders SMILE_HEADERS =
+        new MessageHeaders(Map.of(MessageHeaders.CONTENT_TYPE, SmileEventMessageConverter.MIME_TYPE));
+    private static final int BATCH_SIZE = 50;
+
+    @Param({"CREATE", "CREATE_BATCH"})
+    public Event.Type eventType;
+
+    private ObjectMapper jsonMapper;
+    private JavaType jsonType;
+    private SmileEventMessageConverter smileConverter;
+    private Event<Integer, Review> event;
+    private Message<?> jsonMessage;
+    private Message<?> smileMessage;
+
+    @Setup
+    public void setup() throws IOException {
+        jsonMapper = Jackson2ObjectMapperBuilder.json().build();
+        jsonType = jsonMapper.constructType(EVENT_TYPE);
+        smileConverter = new SmileEventMessageConverter(Jackson2ObjectMapperBuilder.json());
+        event = createEvent(eventType);
+        jsonMessage = encodeJson();
+        smileMessage = encodeSmile();
+    }
+
+    @Benchmark
+    public Message<?> encodeJson() throws IOException {
+        return MessageBuilder.withPayload(jsonMapper.writeValueAsBytes(event))
+            .setHeader(MessageHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+            .build();
+    }
+
+    @Benchmark
+    public Message<?> encodeSmile() {
+        return smileConverter.toMessage(event, SMILE_HEADERS);
+    }
+
+    @Benchmark
+    public Object decodeJson() throws IOException {
+        return jsonMapper.readValue((byte[])jsonMessage.getPayload(), jsonType);
+    }
+
+    @Benchmark
+    public Object decodeSmile() {
+        return smileConverter.fromMessage(smileMessage, Event.class, EVENT_TYPE);
+    }
+
+    int jsonSize() {
+        return ((byte[])jsonMessage.getPayload()).length;
+    }
+
+    int smileSize() {
+        return ((byte[])smileMessage.getPayload()).length;
+    }
+
+    static Event<Integer, Review> createEvent(Event.Type eventType) {
+        if (eventType == Event.Type.CREATE_BATCH) {
+            return Event.batch(1, IntStream.rangeClosed(1, BATCH_SIZE).mapToObj(EventCodecBenchmark::review).toList());
+        }
+        return new Event<>(eventType, 1, review(1));
+    }
+
+    private static Review review(int reviewId) {
+        return new Review(1, reviewId, "Author " + reviewId, "Subject " + reviewId, "Content of review " + reviewId, null);
+    }
+}
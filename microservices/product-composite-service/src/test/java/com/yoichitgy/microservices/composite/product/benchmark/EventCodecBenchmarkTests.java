@@ -0,0 +1,39 @@
+package com.yoichitgy.microservices.composite.product.benchmark;
+
+import java.io.IOException;
+
+import com.yoichitgy.api.event.Event;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the codec benchmarks with: ./gradlew :microservices:product-composite-service:test -Pbenchmark --tests '*EventCodecBenchmarkTests'
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class EventCodecBenchmarkTests {
+    private static final Logger LOG = LoggerFactory.getLogger(EventCodecBenchmarkTests.class);
+
+    @Test
+    void compareCodecs() throws RunnerException, IOException {
+        // Runs in the test JVM, a forked JVM would not get the classpath of the Gradle test worker
+        var options = new OptionsBuilder()
+            .include(EventCodecBenchmark.class.getName())
+            .forks(0)
+            .build();
+        new Runner(options).run();
+
+        for (var eventType : new Event.Type[] {Event.Type.CREATE, Event.Type.CREATE_BATCH}) {
+            var benchmark = new EventCodecBenchmark();
+            benchmark.eventType = eventType;
+            benchmark.setup();
+            LOG.info("Wire size of a {} event: JSON {} bytes, Smile {} bytes",
+                eventType, benchmark.jsonSize(), benchmark.smileSize());
+        }
+    }
+}
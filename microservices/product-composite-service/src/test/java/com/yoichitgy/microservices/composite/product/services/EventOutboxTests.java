@@ -0,0 +1,211 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yoichitgy.api.core.review.Review;
+import com.yoichitgy.api.event.Event;
+import com.yoichitgy.api.event.Event.Type;
+import com.yoichitgy.api.exceptions.ServiceUnavailableException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class EventOutboxTests {
+    private final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
+    private final StreamBridge streamBridge = mock(StreamBridge.class);
+
+    @TempDir
+    Path directory;
+    private EventOutbox outbox;
+    private SimpleMeterRegistry meterRegistry;
+
+    @AfterEach
+    void closeOutbox() throws IOException {
+        outbox.close();
+    }
+
+    @Test
+    void publishesAppendedEvents() {
+        when(streamBridge.send(eq("reviews-out-0"), any(Message.class))).thenReturn(true);
+        outbox = createOutbox(EventSender.Confirms.NONE, 100, DataSize.ofMegabytes(1));
+
+        outbox.append("reviews-out-0", List.of(event(1), event(2), event(3)));
+        assertEquals(3.0, meterRegistry.get("outbox.depth").gauge().value());
+
+        outbox.publishPending();
+
+        verify(streamBridge, times(3)).send(eq("reviews-out-0"), any(Message.class));
+        assertEquals(0.0, meterRegistry.get("outbox.depth").gauge().value());
+        assertEquals(3, meterRegistry.get("outbox.publish.lag").timer().count());
+        assertEquals(3, meterRegistry.get("events.send.latency").tag("binding", "reviews-out-0").timer().count());
+        assertEquals(3.0, meterRegistry.get("events.send.group.size").tag("binding", "reviews-out-0").summary().totalAmount());
+    }
+
+    @Test
+    void replaysUnpublishedEventsOnRestart() throws IOException {
+        // The broker accepts the first event only
+        when(streamBridge.send(eq("reviews-out-0"), any(Message.class))).thenReturn(true, false);
+        outbox = createOutbox(EventSender.Confirms.NONE, 100, DataSize.ofMegabytes(1));
+        outbox.append("reviews-out-0", List.of(event(1), event(2), event(3)));
+        outbox.publishPending();
+        outbox.close();
+
+        // A torn write at the end of the log is dropped
+        Files.writeString(directory.resolve(EventOutbox.segmentName(0)), "{\"binding\":", StandardOpenOption.APPEND);
+
+        when(streamBridge.send(eq("reviews-out-0"), any(Message.class))).thenReturn(true);
+        outbox = createOutbox(EventSender.Confirms.NONE, 100, DataSize.ofMegabytes(1));
+        assertEquals(2.0, meterRegistry.get("outbox.depth").gauge().value());
+
+        outbox.publishPending();
+        assertEquals(0.0, meterRegistry.get("outbox.depth").gauge().value());
+        // 1 + 1 failed attempt before the restart, 2 after it
+        verify(streamBridge, times(4)).send(eq("reviews-out-0"), any(Message.class));
+    }
+
+    @Test
+    void rollsSegmentsWhileEventsArePending() throws IOException {
+        // The broker accepts the first event only, so the outbox never runs empty
+        when(streamBridge.send(eq("reviews-out-0"), any(Message.class))).thenReturn(true, false);
+        outbox = createOutbox(EventSender.Confirms.NONE, 100, DataSize.ofBytes(1));
+        outbox.append("reviews-out-0", List.of(event(1), event(2)));
+        outbox.publishPending();
+        outbox.append("reviews-out-0", List.of(event(3)));
+        outbox.close();
+        // The first segment still holds the second event, the third one is in the new segment
+        assertEquals(2, segmentCount());
+
+        when(streamBridge.send(eq("reviews-out-0"), any(Message.class))).thenReturn(true);
+        outbox = createOutbox(EventSender.Confirms.NONE, 100, DataSize.ofBytes(1));
+        assertEquals(2.0, meterRegistry.get("outbox.depth").gauge().value());
+
+        outbox.publishPending();
+        assertEquals(0.0, meterRegistry.get("outbox.depth").gauge().value());
+        verify(streamBridge, times(4)).send(eq("reviews-out-0"), any(Message.class));
+        // The published segments are deleted, only the new empty one is left
+        assertEquals(1, segmentCount());
+    }
+
+    @Test
+    void rejectsAppendsWhenFull() {
+        when(streamBridge.send(eq("reviews-out-0"), any(Message.class))).thenReturn(true);
+        outbox = createOutbox(EventSender.Confirms.NONE, 3, DataSize.ofMegabytes(1));
+
+        outbox.append("reviews-out-0", List.of(event(1), event(2)));
+        assertThrows(ServiceUnavailableException.class, () -> outbox.append("reviews-out-0", List.of(event(3), event(4))));
+        assertEquals(2.0, meterRegistry.get("outbox.depth").gauge().value());
+        assertEquals(1.0, meterRegistry.get("outbox.rejected").counter().count());
+
+        outbox.publishPending();
+        outbox.append("reviews-out-0", List.of(event(3), event(4)));
+        assertEquals(2.0, meterRegistry.get("outbox.depth").gauge().value());
+    }
+
+    @Test
+    void publishesConcurrentAppendsInOrder() throws IOException {
+        var published = new CopyOnWriteArrayList<Integer>();
+        when(streamBridge.send(eq("reviews-out-0"), any(Message.class))).thenAnswer(invocation -> {
+            Message<Event<?, ?>> message = invocation.getArgument(1);
+            // The outbox reads the events back from the log as JSON trees
+            published.add(mapper.convertValue(message.getPayload().getData(), Review.class).getReviewId());
+            return true;
+        });
+        outbox = createOutbox(EventSender.Confirms.NONE, 1000, DataSize.ofMegabytes(1));
+
+        // 8 appenders of 50 events each, the appends share fsyncs but every event ends up in the log once
+        var appenders = 8;
+        var perAppender = 50;
+        IntStream.range(0, appenders).parallel().forEach(appender -> IntStream.range(0, perAppender)
+            .forEach(i -> outbox.append("reviews-out-0", List.of(event(appender * perAppender + i)))));
+        outbox.close();
+
+        outbox = createOutbox(EventSender.Confirms.NONE, 1000, DataSize.ofMegabytes(1));
+        assertEquals(appenders * perAppender, meterRegistry.get("outbox.depth").gauge().value());
+        outbox.publishPending();
+
+        assertEquals(appenders * perAppender, published.size());
+        IntStream.range(0, appenders).forEach(appender -> {
+            var ofAppender = published.stream().filter(id -> id / perAppender == appender).toList();
+            assertEquals(IntStream.range(0, perAppender).mapToObj(i -> appender * perAppender + i).toList(), ofAppender);
+        });
+    }
+
+    @Test
+    void keepsUnconfirmedEventsPending() {
+        // The broker nacks the second event, and confirms everything after that
+        var sends = new AtomicInteger();
+        when(streamBridge.send(eq("reviews-out-0"), any(Message.class))).thenAnswer(invocation -> {
+            Message<?> message = invocation.getArgument(1);
+            var correlation = message.getHeaders().get(AmqpHeaders.PUBLISH_CONFIRM_CORRELATION, CorrelationData.class);
+            correlation.getFuture().set(new CorrelationData.Confirm(sends.incrementAndGet() != 2, "nack"));
+            return true;
+        });
+        outbox = createOutbox(EventSender.Confirms.RABBIT, 100, DataSize.ofMegabytes(1));
+
+        outbox.append("reviews-out-0", List.of(event(1), event(2), event(3)));
+        outbox.publishPending();
+        assertEquals(2.0, meterRegistry.get("outbox.depth").gauge().value());
+        assertEquals(1.0, meterRegistry.get("outbox.publish.failures").counter().count());
+
+        // The third event is sent again with the second one
+        outbox.publishPending();
+        assertEquals(0.0, meterRegistry.get("outbox.depth").gauge().value());
+        verify(streamBridge, times(5)).send(eq("reviews-out-0"), any(Message.class));
+    }
+
+    @Test
+    void keepsEventsPendingWithoutConfirm() {
+        when(streamBridge.send(eq("reviews-out-0"), any(Message.class))).thenReturn(true);
+        outbox = createOutbox(EventSender.Confirms.KAFKA, 100, DataSize.ofMegabytes(1));
+
+        outbox.append("reviews-out-0", List.of(event(1)));
+        outbox.publishPending();
+        assertEquals(1.0, meterRegistry.get("outbox.depth").gauge().value());
+        assertEquals(1.0, meterRegistry.get("outbox.publish.failures").counter().count());
+    }
+
+    private long segmentCount() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    private EventOutbox createOutbox(EventSender.Confirms confirms, int maxDepth, DataSize segmentSize) {
+        // The background publisher never runs in these tests, publishPending is called instead.
+        // Each outbox gets its own registry, a gauge registered again would still read the closed outbox
+        meterRegistry = new SimpleMeterRegistry();
+        var eventSender = new EventSender(streamBridge, confirms, meterRegistry);
+        return new EventOutbox(true, directory, 100, maxDepth, Duration.ofHours(1), Duration.ofMillis(100), segmentSize, mapper, eventSender, meterRegistry);
+    }
+
+    private Event<Integer, Review> event(int reviewId) {
+        var review = new Review(1, reviewId, "Author " + reviewId, "Subject " + reviewId, "Content " + reviewId, null);
+        return new Event<>(Type.CREATE, 1, review);
+    }
+}
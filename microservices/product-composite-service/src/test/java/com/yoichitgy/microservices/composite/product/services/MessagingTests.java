@@ -5,10 +5,13 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 
 import com.yoichitgy.api.composite.product.ProductAggregate;
+import com.yoichitgy.api.composite.product.ProductIngestResult;
+import com.yoichitgy.api.composite.product.ProductIngestResult.Status;
 import com.yoichitgy.api.composite.product.RecommendationSummary;
 import com.yoichitgy.api.composite.product.ReviewSummary;
 import com.yoichitgy.api.core.product.Product;
@@ -17,6 +20,7 @@ import com.yoichitgy.api.core.review.Review;
 import com.yoichitgy.api.event.Event;
 import com.yoichitgy.api.event.Event.Type;
 import com.yoichitgy.microservices.composite.product.TestSecurityConfiguration;
+import com.yoichitgy.util.http.Deadline;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -30,8 +34,10 @@ import org.springframework.cloud.stream.binder.test.TestChannelBinderConfigurati
 import org.springframework.messaging.Message;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @SpringBootTest(
@@ -40,7 +46,8 @@ import reactor.core.publisher.Mono;
     properties = {
         "spring.security.oauth2.resourceserver.jwt.issuer-uri=",
         "spring.main.allow-bean-definition-overriding=true",
-        "spring.cloud.stream.defaultBinder=rabbit"
+        "spring.cloud.stream.defaultBinder=rabbit",
+        "app.deadline.excludedPaths=/product-composite/bulk"
     }
 )
 @Import({TestChannelBinderConfiguration.class})
@@ -118,6 +125,86 @@ class MessagingTests {
         assertThat(reviewMessages.get(0), is(sameEventExceptCreatedAt(expectedReviewEvent)));
     }
 
+    @Test
+    void createCompositeProductWithManyReviews() {
+        var reviews = List.of(new ReviewSummary(1, "a", "s", "c"), new ReviewSummary(2, "a", "s", "c"));
+        var composite = new ProductAggregate(1, "name", 1, null, reviews, null);
+        postAndVerifyProduct(composite, HttpStatus.ACCEPTED);
+
+        // Both reviews are sent in one message
+        final var reviewMessages = getMessages("reviews");
+        assertEquals(1, reviewMessages.size());
+
+        var expectedEvent = Event.batch(1, List.of(
+            new Review(1, 1, "a", "s", "c", null),
+            new Review(1, 2, "a", "s", "c", null)
+        ));
+        assertThat(reviewMessages.get(0), is(sameEventExceptCreatedAt(expectedEvent)));
+    }
+
+    @Test
+    void createCompositeProducts() {
+        var body = String.join("\n",
+            "{\"productId\":1,\"name\":\"name 1\",\"weight\":1,\"reviews\":[{\"reviewId\":1,\"author\":\"a\"}]}",
+            "",
+            "{\"productId\":0,\"name\":\"name 0\",\"weight\":1}",
+            "{\"productId\":",
+            "{\"productId\":2,\"name\":\"name 2\",\"weight\":2,\"recommendations\":[{\"recommendationId\":1,\"author\":\"a\"}]}"
+        );
+
+        var results = client.post()
+            .uri("/product-composite/bulk")
+            .contentType(MediaType.APPLICATION_NDJSON)
+            .accept(MediaType.APPLICATION_NDJSON)
+            .bodyValue(body)
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(ProductIngestResult.class)
+            .getResponseBody()
+            .collectList()
+            .block();
+
+        assertEquals(4, results.size());
+        assertEquals(new ProductIngestResult(1, 1, Status.ACCEPTED, null), results.get(0));
+        assertEquals(new ProductIngestResult(3, 0, Status.REJECTED, "Invalid productId: 0"), results.get(1));
+        assertEquals(4, results.get(2).getLine());
+        assertEquals(Status.REJECTED, results.get(2).getStatus());
+        assertEquals(new ProductIngestResult(5, 2, Status.ACCEPTED, null), results.get(3));
+
+        assertEquals(2, getMessages("products").size());
+        assertEquals(1, getMessages("recommendations").size());
+        assertEquals(1, getMessages("reviews").size());
+    }
+
+    @Test
+    void createCompositeProductsIgnoresDeadline() {
+        // The lines come slower than the deadline, which would cancel any other request
+        var body = Flux.just(
+                "{\"productId\":1,\"name\":\"name 1\",\"weight\":1}\n",
+                "{\"productId\":2,\"name\":\"name 2\",\"weight\":2}\n"
+            )
+            .delayElements(Duration.ofMillis(300));
+
+        var results = client.post()
+            .uri("/product-composite/bulk")
+            .header(Deadline.HEADER, "100")
+            .contentType(MediaType.APPLICATION_NDJSON)
+            .accept(MediaType.APPLICATION_NDJSON)
+            .body(body, String.class)
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(ProductIngestResult.class)
+            .getResponseBody()
+            .collectList()
+            .block();
+
+        assertEquals(List.of(
+            new ProductIngestResult(1, 1, Status.ACCEPTED, null),
+            new ProductIngestResult(2, 2, Status.ACCEPTED, null)
+        ), results);
+        assertEquals(2, getMessages("products").size());
+    }
+
     @Test
     void deleteCompositeProduct() {
         deleteAndVerifyProduct(1, HttpStatus.ACCEPTED);
@@ -0,0 +1,120 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.yoichitgy.util.http.Deadline;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class MicroBatcherTests {
+    private final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+    private final MicroBatcher<Integer> batcher = new MicroBatcher<>(
+        "test", Duration.ofMillis(50), 3,
+        productIds -> {
+            batches.add(productIds);
+            // Each product has two entities, except product 13 that has none
+            return Flux.fromIterable(productIds).filter(id -> id != 13).flatMap(id -> Flux.just(id, id));
+        },
+        id -> id,
+        new SimpleMeterRegistry()
+    );
+
+    @AfterEach
+    void tearDown() {
+        batcher.dispose();
+    }
+
+    @Test
+    void lookupsWithinWindowAreBatched() {
+        var lookups = Mono.zip(
+            batcher.load(1).collectList(),
+            batcher.load(2).collectList(),
+            batcher.load(13).collectList()
+        );
+
+        StepVerifier.create(lookups)
+            .expectNextMatches(t -> t.getT1().equals(List.of(1, 1)) && t.getT2().equals(List.of(2, 2)) && t.getT3().isEmpty())
+            .verifyComplete();
+        assertEquals(List.of(List.of(1, 2, 13)), batches);
+    }
+
+    @Test
+    void fullBatchIsDispatchedBeforeWindowEnds() {
+        var lookups = Flux.range(1, 4).flatMap(id -> batcher.load(id).collectList()).collectList();
+
+        StepVerifier.create(lookups)
+            .expectNextMatches(results -> results.size() == 4)
+            .verifyComplete();
+        assertEquals(2, batches.size());
+        assertEquals(3, batches.get(0).size());
+    }
+
+    @Test
+    void batchGetsLatestDeadline() {
+        var deadlines = new CopyOnWriteArrayList<Optional<Instant>>();
+        var deadlineBatcher = new MicroBatcher<Integer>(
+            "deadline", Duration.ofMillis(50), 3,
+            productIds -> Flux.deferContextual(context -> {
+                deadlines.add(Deadline.get(context));
+                return Flux.fromIterable(productIds);
+            }),
+            id -> id,
+            new SimpleMeterRegistry()
+        );
+        var now = Instant.now();
+        var early = now.plusSeconds(1);
+        var late = now.plusSeconds(2);
+
+        StepVerifier.create(Mono.zip(
+                deadlineBatcher.load(1).collectList().contextWrite(context -> Deadline.put(context, early)),
+                deadlineBatcher.load(2).collectList().contextWrite(context -> Deadline.put(context, late))
+            ))
+            .expectNextCount(1)
+            .verifyComplete();
+        StepVerifier.create(Mono.zip(
+                deadlineBatcher.load(1).collectList().contextWrite(context -> Deadline.put(context, early)),
+                deadlineBatcher.load(2).collectList()
+            ))
+            .expectNextCount(1)
+            .verifyComplete();
+        deadlineBatcher.dispose();
+
+        assertEquals(List.of(Optional.of(late), Optional.empty()), deadlines);
+    }
+
+    @Test
+    void failedBatchDoesNotStopDispatcher() {
+        var calls = new AtomicInteger();
+        var failingBatcher = new MicroBatcher<Integer>(
+            "failing", Duration.ofMillis(10), 3,
+            productIds -> {
+                if (calls.getAndIncrement() == 0) {
+                    throw new IllegalStateException("Failed to build the request");
+                }
+                return Flux.fromIterable(productIds);
+            },
+            id -> id,
+            new SimpleMeterRegistry()
+        );
+
+        StepVerifier.create(failingBatcher.load(1))
+            .verifyError(IllegalStateException.class);
+        StepVerifier.create(failingBatcher.load(2))
+            .expectNext(2)
+            .verifyComplete();
+        failingBatcher.dispose();
+    }
+}
@@ -0,0 +1,64 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import com.yoichitgy.api.composite.product.ProductAggregate;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+class ProductAggregateCacheTests {
+    private final ProductAggregateCache cache = new ProductAggregateCache(
+        true, 100, Duration.ofMinutes(1), Duration.ofMinutes(1), new SimpleMeterRegistry());
+
+    @Test
+    void loadIsNotCachedAfterInvalidationOfItsProduct() {
+        var loaded = Sinks.<ProductAggregate>one();
+        var load = cache.get(1, loaded::asMono, aggregate -> true).subscribe();
+
+        cache.invalidate(1);
+        loaded.tryEmitValue(aggregate(1));
+        load.dispose();
+
+        StepVerifier.create(cache.getIfPresent(1)).verifyComplete();
+    }
+
+    @Test
+    void loadIsCachedAfterInvalidationOfOtherProduct() {
+        var loaded = Sinks.<ProductAggregate>one();
+        var load = cache.getAll(List.of(1, 2), ids -> loaded.asMono().map(a -> Map.of(1, a)), aggregate -> true)
+            .subscribe();
+
+        cache.invalidate(3);
+        loaded.tryEmitValue(aggregate(1));
+        load.dispose();
+
+        StepVerifier.create(cache.getIfPresent(1)).expectNextMatches(a -> a.getProductId() == 1).verifyComplete();
+    }
+
+    @Test
+    void loadIsNotCachedAfterInvalidateAll() {
+        var loaded = Sinks.<ProductAggregate>one();
+        var load = cache.get(1, loaded::asMono, aggregate -> true).subscribe();
+
+        cache.invalidateAll();
+        loaded.tryEmitValue(aggregate(1));
+        load.dispose();
+
+        StepVerifier.create(cache.getIfPresent(1)).verifyComplete();
+        StepVerifier.create(cache.get(1, () -> Mono.just(aggregate(1)), aggregate -> true)).expectNextCount(1).verifyComplete();
+        assertEquals(1, cache.getIfPresent(1).block().getProductId());
+    }
+
+    private static ProductAggregate aggregate(int productId) {
+        return new ProductAggregate(productId, "name", 1, List.of(), List.of(), null);
+    }
+}
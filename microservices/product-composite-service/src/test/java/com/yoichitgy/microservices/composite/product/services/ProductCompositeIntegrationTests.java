@@ -0,0 +1,109 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yoichitgy.api.core.product.Product;
+import com.yoichitgy.api.exceptions.InvalidInputException;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+class ProductCompositeIntegrationTests {
+    private final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @Test
+    void invalidProductIdIsNotBatchedWithValidOnes() {
+        var integration = createIntegration(true);
+
+        // Both lookups fall into the same window, only the valid one is batched
+        var valid = integration.getProduct(new HttpHeaders(), 1, 0, 0);
+        var invalid = integration.getProduct(new HttpHeaders(), -1, 0, 0)
+            .map(Product::getProductId)
+            .onErrorResume(InvalidInputException.class, ex -> Mono.just(-1));
+
+        StepVerifier.create(Mono.zip(valid, invalid))
+            .expectNextMatches(t -> t.getT1().getProductId() == 1 && t.getT2() == -1)
+            .verifyComplete();
+
+        assertEquals(2, requests.size());
+        assertEquals(1, requests.stream().filter(r -> r.endsWith("/product?productIds=1")).count());
+        assertEquals(1, requests.stream().filter(r -> r.contains("/product/-1")).count());
+    }
+
+    private ProductCompositeIntegration createIntegration(boolean microBatchingEnabled) {
+        var webClientBuilder = WebClient.builder().exchangeFunction(this::exchange);
+        var eventSender = new EventSender(mock(StreamBridge.class), EventSender.Confirms.NONE, meterRegistry);
+        var outbox = new EventOutbox(false, null, 100, 1000, Duration.ofHours(1), Duration.ofSeconds(1), DataSize.ofMegabytes(1), mapper, eventSender, meterRegistry);
+        return new ProductCompositeIntegration(
+            webClientBuilder, mapper, eventSender, outbox, Schedulers.immediate(),
+            new RequestCoalescer(true, Duration.ofMillis(50), Duration.ofMillis(20), meterRegistry),
+            new RequestHedger(false, 0.95, Duration.ofMillis(10), 0.05, meterRegistry),
+            new ProductFallbackStore(100, meterRegistry),
+            CircuitBreakerRegistry.ofDefaults(), meterRegistry,
+            microBatchingEnabled, Duration.ofMillis(50), 64, 100
+        );
+    }
+
+    // Like the product service, a multi-id request with an invalid id is rejected as a whole
+    private Mono<ClientResponse> exchange(ClientRequest request) {
+        var url = request.url();
+        requests.add(url.toString());
+
+        var query = url.getQuery();
+        if (query != null && query.startsWith("productIds=")) {
+            var productIds = Arrays.stream(query.substring("productIds=".length()).split(","))
+                .map(Integer::valueOf)
+                .toList();
+            if (productIds.stream().anyMatch(id -> id < 1)) {
+                return Mono.just(invalidProductId());
+            }
+            return Mono.just(json(productIds.stream().map(id -> new Product(id, "name", 1, null)).toList()));
+        }
+        if (url.getPath().equals("/product/-1")) {
+            return Mono.just(invalidProductId());
+        }
+        return Mono.just(ClientResponse.create(HttpStatus.NOT_FOUND).build());
+    }
+
+    private ClientResponse invalidProductId() {
+        return ClientResponse.create(HttpStatus.UNPROCESSABLE_ENTITY)
+            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+            .body("{\"message\":\"Invalid productId\"}")
+            .build();
+    }
+
+    private ClientResponse json(Object body) {
+        try {
+            return ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(mapper.writeValueAsString(body))
+                .build();
+        } catch (JsonProcessingException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -1,20 +1,32 @@
 package com.yoichitgy.microservices.composite.product.services;
 
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+
+import java.time.Duration;
+import java.util.function.Consumer;
 
 import com.yoichitgy.api.core.product.Product;
 import com.yoichitgy.api.core.recommendation.Recommendation;
 import com.yoichitgy.api.core.review.Review;
+import com.yoichitgy.api.event.Event;
+import com.yoichitgy.api.event.Event.Type;
 import com.yoichitgy.api.exceptions.InvalidInputException;
 import com.yoichitgy.api.exceptions.NotFoundException;
 import com.yoichitgy.microservices.composite.product.TestSecurityConfiguration;
 
+import com.jayway.jsonpath.JsonPath;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.mock.mockito.MockBean;
@@ -30,33 +42,83 @@ import reactor.core.publisher.Mono;
     classes = {TestSecurityConfiguration.class},
     properties = {
         "spring.security.oauth2.resourceserver.jwt.issuer-uri=",
-        "spring.main.allow-bean-definition-overriding=true"
+        "spring.main.allow-bean-definition-overriding=true",
+        "app.pageSize=2",
+        "app.timeBudget.deadline=500ms",
+        "app.timeBudget.recommendations=200ms",
+        "app.timeBudget.reviews=200ms"
     }
 )
 class ProductCompositeServiceImplTests {
     private static final int PRODUCT_ID_OK = 1;
     private static final int PRODUCT_ID_NOT_FOUND = 2;
     private static final int PRODUCT_ID_INVALID = 3;
+    private static final int PRODUCT_ID_STALE = 4;
+    private static final int PRODUCT_ID_SLOW_REVIEWS = 5;
+    private static final int PRODUCT_ID_MANY_REVIEWS = 6;
+    private static final int PRODUCT_ID_SLOW = 7;
   
     @Autowired
     private WebTestClient client;
     @MockBean
     private ProductCompositeIntegration compositeIntegration;
+    @Autowired
+    private ProductAggregateCache cache;
+    @Autowired
+    @Qualifier("productCacheInvalidator")
+    private Consumer<Event<Integer, Product>> productCacheInvalidator;
 
     @BeforeEach
     void setUp() {
+        cache.invalidateAll();
+
         when(compositeIntegration.getProduct(any(), eq(PRODUCT_ID_OK), anyInt(), anyInt()))
             .thenReturn(Mono.just(new Product(PRODUCT_ID_OK, "name", 1, "mock-address")));
-        when(compositeIntegration.getRecommendations(any(), eq(PRODUCT_ID_OK)))
+        when(compositeIntegration.getRecommendations(any(), eq(PRODUCT_ID_OK), anyInt(), anyInt()))
             .thenReturn(Flux.just(new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address")));
-        when(compositeIntegration.getReviews(any(), eq(PRODUCT_ID_OK)))
+        when(compositeIntegration.getReviews(any(), eq(PRODUCT_ID_OK), anyInt(), anyInt()))
             .thenReturn(Flux.just(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address")));
       
+        when(compositeIntegration.getProducts(any(), anyList()))
+            .thenReturn(Flux.just(new Product(PRODUCT_ID_OK, "name", 1, "mock-address")));
+        when(compositeIntegration.getRecommendations(any(), anyList(), anyInt()))
+            .thenReturn(Flux.just(new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address")));
+        when(compositeIntegration.getReviews(any(), anyList(), anyInt()))
+            .thenReturn(Flux.just(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address")));
+
         when(compositeIntegration.getProduct(any(), eq(PRODUCT_ID_NOT_FOUND), anyInt(), anyInt()))
             .thenThrow(new NotFoundException("NOT FOUND: " + PRODUCT_ID_NOT_FOUND));
       
         when(compositeIntegration.getProduct(any(), eq(PRODUCT_ID_INVALID), anyInt(), anyInt()))
             .thenThrow(new InvalidInputException("INVALID: " + PRODUCT_ID_INVALID));
+
+        when(compositeIntegration.getProduct(any(), eq(PRODUCT_ID_STALE), anyInt(), anyInt()))
+            .thenReturn(Mono.just(new ProductFallbackStore.StaleProduct(new Product(PRODUCT_ID_STALE, "name", 1, "mock-address"))));
+        when(compositeIntegration.getRecommendations(any(), eq(PRODUCT_ID_STALE), anyInt(), anyInt())).thenReturn(Flux.empty());
+        when(compositeIntegration.getReviews(any(), eq(PRODUCT_ID_STALE), anyInt(), anyInt())).thenReturn(Flux.empty());
+
+        when(compositeIntegration.getProduct(any(), eq(PRODUCT_ID_SLOW_REVIEWS), anyInt(), anyInt()))
+            .thenReturn(Mono.just(new Product(PRODUCT_ID_SLOW_REVIEWS, "name", 1, "mock-address")));
+        when(compositeIntegration.getRecommendations(any(), eq(PRODUCT_ID_SLOW_REVIEWS), anyInt(), anyInt()))
+            .thenReturn(Flux.just(new Recommendation(PRODUCT_ID_SLOW_REVIEWS, 1, "author", 1, "content", "mock address")));
+        when(compositeIntegration.getReviews(any(), eq(PRODUCT_ID_SLOW_REVIEWS), anyInt(), anyInt()))
+            .thenReturn(Flux.just(new Review(PRODUCT_ID_SLOW_REVIEWS, 1, "author", "subject", "content", "mock address"))
+                .delayElements(Duration.ofSeconds(1)));
+
+        when(compositeIntegration.getProduct(any(), eq(PRODUCT_ID_SLOW), anyInt(), anyInt()))
+            .thenReturn(Mono.just(new Product(PRODUCT_ID_SLOW, "name", 1, "mock-address")).delayElement(Duration.ofSeconds(2)));
+        when(compositeIntegration.getRecommendations(any(), eq(PRODUCT_ID_SLOW), anyInt(), anyInt())).thenReturn(Flux.empty());
+        when(compositeIntegration.getReviews(any(), eq(PRODUCT_ID_SLOW), anyInt(), anyInt())).thenReturn(Flux.empty());
+
+        // The page size is 2 in the tests, so the first page of reviews has a next page token
+        when(compositeIntegration.getProduct(any(), eq(PRODUCT_ID_MANY_REVIEWS), anyInt(), anyInt()))
+            .thenReturn(Mono.just(new Product(PRODUCT_ID_MANY_REVIEWS, "name", 1, "mock-address")));
+        when(compositeIntegration.getRecommendations(any(), eq(PRODUCT_ID_MANY_REVIEWS), anyInt(), anyInt()))
+            .thenReturn(Flux.empty());
+        when(compositeIntegration.getReviews(any(), eq(PRODUCT_ID_MANY_REVIEWS), anyInt(), eq(0)))
+            .thenReturn(Flux.range(1, 3).map(id -> new Review(PRODUCT_ID_MANY_REVIEWS, id, "author", "subject", "content", "mock address")));
+        when(compositeIntegration.getReviews(any(), eq(PRODUCT_ID_MANY_REVIEWS), anyInt(), eq(2)))
+            .thenReturn(Flux.just(new Review(PRODUCT_ID_MANY_REVIEWS, 3, "author", "subject", "content", "mock address")));
     }
  
     @Test
@@ -64,7 +126,141 @@ class ProductCompositeServiceImplTests {
         getAndVerifyProduct(PRODUCT_ID_OK, HttpStatus.OK)
             .jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK)
             .jsonPath("$.recommendations.length()").isEqualTo(1)
+            .jsonPath("$.reviews.length()").isEqualTo(1)
+            .jsonPath("$.incompleteSections.length()").isEqualTo(0);
+    }
+
+    @Test
+    void getProductByIdFromCache() {
+        getAndVerifyProduct(PRODUCT_ID_OK, HttpStatus.OK);
+        getAndVerifyProduct(PRODUCT_ID_OK, HttpStatus.OK)
+            .jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK);
+
+        verify(compositeIntegration, times(1)).getProduct(any(), eq(PRODUCT_ID_OK), anyInt(), anyInt());
+    }
+
+    @Test
+    void getProductByIdAfterInvalidation() {
+        getAndVerifyProduct(PRODUCT_ID_OK, HttpStatus.OK);
+        productCacheInvalidator.accept(new Event<Integer, Product>(Type.DELETE, PRODUCT_ID_OK, null));
+        getAndVerifyProduct(PRODUCT_ID_OK, HttpStatus.OK);
+
+        verify(compositeIntegration, times(2)).getProduct(any(), eq(PRODUCT_ID_OK), anyInt(), anyInt());
+    }
+
+    @Test
+    void getProductByIdWithNoCache() {
+        getAndVerifyProduct(PRODUCT_ID_OK, HttpStatus.OK);
+        client.get()
+            .uri("/product-composite/" + PRODUCT_ID_OK)
+            .header("Cache-Control", "no-cache")
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isOk();
+
+        verify(compositeIntegration, times(2)).getProduct(any(), eq(PRODUCT_ID_OK), anyInt(), anyInt());
+    }
+
+    @Test
+    void getStaleProductIsNotCached() {
+        getAndVerifyProduct(PRODUCT_ID_STALE, HttpStatus.OK)
+            .jsonPath("$.stale").isEqualTo(true);
+        getAndVerifyProduct(PRODUCT_ID_STALE, HttpStatus.OK);
+
+        verify(compositeIntegration, times(2)).getProduct(any(), eq(PRODUCT_ID_STALE), anyInt(), anyInt());
+    }
+
+    @Test
+    void getProductWithSlowReviews() {
+        getAndVerifyProduct(PRODUCT_ID_SLOW_REVIEWS, HttpStatus.OK)
+            .jsonPath("$.recommendations.length()").isEqualTo(1)
+            .jsonPath("$.reviews.length()").isEqualTo(0)
+            .jsonPath("$.incompleteSections.length()").isEqualTo(1)
+            .jsonPath("$.incompleteSections[0]").isEqualTo("reviews");
+    }
+
+    @Test
+    void getSlowProductFailsAtDeadline() {
+        getAndVerifyProduct(PRODUCT_ID_SLOW, HttpStatus.GATEWAY_TIMEOUT)
+            .jsonPath("$.message").isEqualTo("No product before the deadline");
+    }
+
+    @Test
+    void getProductWithFields() {
+        client.get()
+            .uri("/product-composite/" + PRODUCT_ID_OK + "?fields=recommendations")
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK)
+            .jsonPath("$.name").doesNotExist()
+            .jsonPath("$.recommendations.length()").isEqualTo(1)
+            .jsonPath("$.reviews").doesNotExist();
+
+        verify(compositeIntegration, never()).getProduct(any(), anyInt(), anyInt(), anyInt());
+        verify(compositeIntegration, never()).getReviews(any(), anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    void getProductWithFieldsFromCache() {
+        getAndVerifyProduct(PRODUCT_ID_OK, HttpStatus.OK);
+        client.get()
+            .uri("/product-composite/" + PRODUCT_ID_OK + "?fields=product,reviews")
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.name").isEqualTo("name")
+            .jsonPath("$.recommendations").doesNotExist()
             .jsonPath("$.reviews.length()").isEqualTo(1);
+
+        verify(compositeIntegration, times(1)).getProduct(any(), eq(PRODUCT_ID_OK), anyInt(), anyInt());
+    }
+
+    @Test
+    void getProductWithInvalidFields() {
+        client.get()
+            .uri("/product-composite/" + PRODUCT_ID_OK + "?fields=product,price")
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY)
+            .expectBody()
+            .jsonPath("$.message").isEqualTo("Invalid field: price, valid fields are product, recommendations and reviews");
+    }
+
+    @Test
+    void getProductWithPagedReviews() {
+        var body = getAndVerifyProduct(PRODUCT_ID_MANY_REVIEWS, HttpStatus.OK)
+            .jsonPath("$.reviews.length()").isEqualTo(2)
+            .jsonPath("$.reviews[1].reviewId").isEqualTo(2)
+            .jsonPath("$.recommendationsNextPageToken").doesNotExist()
+            .returnResult().getResponseBody();
+        var reviewsNextPageToken = JsonPath.<String>read(new String(body), "$.reviewsNextPageToken");
+
+        client.get()
+            .uri("/product-composite/" + PRODUCT_ID_MANY_REVIEWS + "?pageToken=" + reviewsNextPageToken)
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.name").doesNotExist()
+            .jsonPath("$.reviews.length()").isEqualTo(1)
+            .jsonPath("$.reviews[0].reviewId").isEqualTo(3)
+            .jsonPath("$.reviewsNextPageToken").doesNotExist();
+
+        verify(compositeIntegration, times(1)).getProduct(any(), eq(PRODUCT_ID_MANY_REVIEWS), anyInt(), anyInt());
+    }
+
+    @Test
+    void getProductWithInvalidPageToken() {
+        client.get()
+            .uri("/product-composite/" + PRODUCT_ID_OK + "?pageToken=invalid")
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY)
+            .expectBody()
+            .jsonPath("$.message").isEqualTo("Invalid pageToken: invalid");
     }
 
     @Test
@@ -81,6 +277,34 @@ class ProductCompositeServiceImplTests {
             .jsonPath("$.message").isEqualTo("INVALID: " + PRODUCT_ID_INVALID);
     }
 
+    @Test
+    void getProductsByIds() {
+        getAndVerifyProducts(PRODUCT_ID_OK + "," + PRODUCT_ID_NOT_FOUND, HttpStatus.OK)
+            .jsonPath("$.products.length()").isEqualTo(1)
+            .jsonPath("$.products[0].productId").isEqualTo(PRODUCT_ID_OK)
+            .jsonPath("$.products[0].recommendations.length()").isEqualTo(1)
+            .jsonPath("$.products[0].reviews.length()").isEqualTo(1)
+            .jsonPath("$.notFound.length()").isEqualTo(1)
+            .jsonPath("$.notFound[0]").isEqualTo(PRODUCT_ID_NOT_FOUND);
+    }
+
+    @Test
+    void getProductsInvalidInput() {
+        getAndVerifyProducts(PRODUCT_ID_OK + ",-1", HttpStatus.UNPROCESSABLE_ENTITY)
+            .jsonPath("$.path").isEqualTo("/product-composite")
+            .jsonPath("$.message").isEqualTo("Invalid productId: -1");
+    }
+
+    private WebTestClient.BodyContentSpec getAndVerifyProducts(String productIds, HttpStatus expectedStatus) {
+        return client.get()
+            .uri("/product-composite?productIds=" + productIds)
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isEqualTo(expectedStatus)
+            .expectHeader().contentType(MediaType.APPLICATION_JSON)
+            .expectBody();
+    }
+
     private WebTestClient.BodyContentSpec getAndVerifyProduct(int productId, HttpStatus expectedStatus) {
         return client.get()
             .uri("/product-composite/" + productId)
@@ -0,0 +1,45 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import com.yoichitgy.api.core.product.Product;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ProductFallbackStoreTests {
+    private final ProductFallbackStore store = new ProductFallbackStore(100, new SimpleMeterRegistry());
+
+    @Test
+    void getStaleProduct() {
+        store.put(new Product(1, "name", 1, "SA"));
+
+        var stale = store.getStale(1).orElseThrow();
+        assertEquals("name", stale.getName());
+        assertTrue(ProductFallbackStore.isStale(stale));
+        assertEquals(List.of(1), store.getServedStale());
+
+        assertTrue(store.getStale(2).isEmpty());
+    }
+
+    @Test
+    void refreshedProductIsNoLongerServedStale() {
+        store.put(new Product(1, "name", 1, "SA"));
+        store.getStale(1);
+
+        store.put(new Product(1, "new name", 1, "SA"));
+        assertTrue(store.getServedStale().isEmpty());
+        assertEquals("new name", store.getStale(1).orElseThrow().getName());
+    }
+
+    @Test
+    void staleProductIsNotStored() {
+        store.put(new ProductFallbackStore.StaleProduct(new Product(1, "name", 1, "SA")));
+        assertFalse(store.getStale(1).isPresent());
+    }
+}
@@ -0,0 +1,126 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.yoichitgy.util.http.Deadline;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class RequestCoalescerTests {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RequestCoalescer coalescer = new RequestCoalescer(true, Duration.ofMillis(50), Duration.ofMillis(50), meterRegistry);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    void concurrentCallsAreCoalesced() {
+        var call1 = coalescer.coalesce("get", "1", () -> slowCall(1));
+        var call2 = coalescer.coalesce("get", "1", () -> slowCall(1));
+        var call3 = coalescer.coalesce("get", "2", () -> slowCall(2));
+
+        StepVerifier.create(Mono.zip(call1, call2, call3))
+            .expectNextMatches(t -> t.getT1() == 1 && t.getT2() == 1 && t.getT3() == 2)
+            .verifyComplete();
+
+        assertEquals(2, calls.get());
+        assertEquals(1.0, meterRegistry.counter("composite.requests.coalesced", "operation", "get").count());
+    }
+
+    @Test
+    void completedCallsAreNotReused() {
+        StepVerifier.create(coalescer.coalesce("get", "1", () -> slowCall(1))).expectNext(1).verifyComplete();
+        StepVerifier.create(coalescer.coalesce("get", "1", () -> slowCall(1))).expectNext(1).verifyComplete();
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void callIsCancelledWhenLastCallerLeaves() {
+        var cancelled = new AtomicBoolean();
+        Supplier<Mono<Integer>> call = () -> slowCall(1).doOnCancel(() -> cancelled.set(true));
+        var call1 = coalescer.coalesce("get", "1", call).timeout(Duration.ofMillis(10));
+        var call2 = coalescer.coalesce("get", "1", call);
+
+        // The call keeps running while the second caller waits for it
+        StepVerifier.create(Mono.zip(call1.onErrorResume(TimeoutException.class, ex -> Mono.just(0)), call2))
+            .expectNextMatches(t -> t.getT1() == 0 && t.getT2() == 1)
+            .verifyComplete();
+        assertFalse(cancelled.get());
+
+        var call3 = coalescer.coalesce("get", "1", call).timeout(Duration.ofMillis(10));
+        var call4 = coalescer.coalesce("get", "1", call).timeout(Duration.ofMillis(20));
+        StepVerifier.create(Mono.zip(
+                call3.onErrorResume(TimeoutException.class, ex -> Mono.just(0)),
+                call4.onErrorResume(TimeoutException.class, ex -> Mono.just(0))
+            ))
+            .expectNextMatches(t -> t.getT1() == 0 && t.getT2() == 0)
+            .verifyComplete();
+        // Cancelled once the grace period has passed without a caller
+        await(cancelled);
+        assertTrue(cancelled.get());
+
+        // The cancelled call is not shared with later callers
+        StepVerifier.create(coalescer.coalesce("get", "1", () -> slowCall(1))).expectNext(1).verifyComplete();
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void callSurvivesLeaderLeavingWithinGracePeriod() {
+        var call1 = coalescer.coalesce("get", "1", () -> slowCall(1)).timeout(Duration.ofMillis(10));
+        StepVerifier.create(call1).expectError(TimeoutException.class).verify();
+
+        // Joins the call of the leader that has left, instead of starting another one
+        StepVerifier.create(coalescer.coalesce("get", "1", () -> slowCall(1))).expectNext(1).verifyComplete();
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void callsShareOnlyWithinDeadlineBucket() {
+        var now = Instant.now().toEpochMilli() / 50 * 50 + 1000;
+        var seen = new CopyOnWriteArrayList<Instant>();
+        Supplier<Mono<Integer>> call = () -> Mono.deferContextual(context -> {
+            seen.add(Deadline.get(context).orElseThrow());
+            return slowCall(1);
+        });
+
+        StepVerifier.create(Mono.zip(
+                coalescer.coalesce("get", "1", call).contextWrite(c -> Deadline.put(c, Instant.ofEpochMilli(now + 10))),
+                coalescer.coalesce("get", "1", call).contextWrite(c -> Deadline.put(c, Instant.ofEpochMilli(now + 40))),
+                coalescer.coalesce("get", "1", call).contextWrite(c -> Deadline.put(c, Instant.ofEpochMilli(now + 60)))
+            ))
+            .expectNextCount(1)
+            .verifyComplete();
+
+        // The first two share a call with the end of their bucket as the deadline
+        assertEquals(2, calls.get());
+        assertEquals(List.of(Instant.ofEpochMilli(now + 50), Instant.ofEpochMilli(now + 100)), seen.stream().sorted().toList());
+    }
+
+    private static void await(AtomicBoolean flag) {
+        var deadline = System.nanoTime() + Duration.ofSeconds(1).toNanos();
+        while (!flag.get() && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private Mono<Integer> slowCall(int value) {
+        return Mono.fromCallable(() -> {
+            calls.incrementAndGet();
+            return value;
+        }).delayElement(Duration.ofMillis(100));
+    }
+}
@@ -0,0 +1,62 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class RequestHedgerTests {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    void slowCallIsHedged() {
+        var hedger = new RequestHedger(true, 0.95, Duration.ofMillis(50), 1.0, meterRegistry);
+
+        // The first call is slow, the hedged call is fast
+        StepVerifier.create(hedger.hedge("get", () -> call(calls.incrementAndGet() == 1 ? 1000 : 10)))
+            .expectNext("response")
+            .verifyComplete();
+
+        assertEquals(2, calls.get());
+        assertEquals(1.0, meterRegistry.counter("composite.hedge.requests", "operation", "get", "result", "sent").count());
+        assertEquals(1.0, meterRegistry.counter("composite.hedge.requests", "operation", "get", "result", "won").count());
+    }
+
+    @Test
+    void fastCallIsNotHedged() {
+        var hedger = new RequestHedger(true, 0.95, Duration.ofMillis(200), 1.0, meterRegistry);
+
+        StepVerifier.create(hedger.hedge("get", () -> call(10)).doOnNext(r -> calls.incrementAndGet()))
+            .expectNext("response")
+            .verifyComplete();
+
+        assertEquals(1, calls.get());
+        assertEquals(0.0, meterRegistry.counter("composite.hedge.requests", "operation", "get", "result", "sent").count());
+    }
+
+    @Test
+    void hedgingIsLimitedByBudget() {
+        var hedger = new RequestHedger(true, 0.95, Duration.ofMillis(10), 0.5, meterRegistry);
+
+        // Each call adds half a token, so only every second slow call can be hedged.
+        // Each call is twice as slow as the previous one, so that it is slower than the observed latencies
+        for (int i = 0; i < 4; i++) {
+            long latencyMillis = 100L << i;
+            StepVerifier.create(hedger.hedge("get", () -> call(latencyMillis))).expectNext("response").verifyComplete();
+        }
+
+        assertEquals(2.0, meterRegistry.counter("composite.hedge.requests", "operation", "get", "result", "sent").count());
+        assertEquals(2.0, meterRegistry.counter("composite.hedge.requests", "operation", "get", "result", "skipped").count());
+    }
+
+    private Mono<String> call(long latencyMillis) {
+        return Mono.just("response").delayElement(Duration.ofMillis(latencyMillis));
+    }
+}
@@ -0,0 +1,62 @@
+package com.yoichitgy.microservices.composite.product.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+
+import com.yoichitgy.api.core.review.Review;
+import com.yoichitgy.api.event.Event;
+import com.yoichitgy.api.event.Event.Type;
+import com.yoichitgy.util.messaging.SmileEventMessageConverter;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.support.MessageBuilder;
+
+class SmileEventMessageConverterTests {
+    private static final java.lang.reflect.Type EVENT_TYPE = new ParameterizedTypeReference<Event<Integer, Review>>() {}.getType();
+    private static final MessageHeaders SMILE_HEADERS =
+        new MessageHeaders(Map.of(MessageHeaders.CONTENT_TYPE, SmileEventMessageConverter.MIME_TYPE));
+
+    private final SmileEventMessageConverter converter = new SmileEventMessageConverter(Jackson2ObjectMapperBuilder.json());
+
+    @Test
+    void roundTrip() {
+        var event = Event.batch(1, List.of(review(1), review(2)));
+
+        var message = converter.toMessage(event, SMILE_HEADERS);
+        var decoded = (Event<?, ?>)converter.fromMessage(message, Event.class, EVENT_TYPE);
+
+        assertEquals(Type.CREATE_BATCH, decoded.getEventType());
+        assertEquals(1, decoded.getKey());
+        assertEquals(event.getBatch(), decoded.getBatch());
+        assertEquals(event.getEventCreatedAt().toInstant(), decoded.getEventCreatedAt().toInstant());
+    }
+
+    @Test
+    void rejectsNewerSchemaVersion() {
+        var payload = (byte[])converter.toMessage(new Event<>(Type.CREATE, 1, review(1)), SMILE_HEADERS).getPayload();
+        payload[0] = (byte)(SmileEventMessageConverter.SCHEMA_VERSION + 1);
+
+        var message = MessageBuilder.withPayload(payload).copyHeaders(SMILE_HEADERS).build();
+        assertThrows(MessageConversionException.class, () -> converter.fromMessage(message, Event.class, EVENT_TYPE));
+    }
+
+    @Test
+    void leavesJsonMessagesToTheJsonConverter() {
+        var message = MessageBuilder.withPayload("{}".getBytes())
+            .setHeader(MessageHeaders.CONTENT_TYPE, "application/json")
+            .build();
+        assertNull(converter.fromMessage(message, Event.class, EVENT_TYPE));
+    }
+
+    private Review review(int reviewId) {
+        return new Review(1, reviewId, "Author " + reviewId, "Subject " + reviewId, "Content " + reviewId, null);
+    }
+}
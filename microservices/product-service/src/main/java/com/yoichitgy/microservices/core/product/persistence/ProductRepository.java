@@ -1,9 +1,18 @@
 package com.yoichitgy.microservices.core.product.persistence;
 
+import java.util.Collection;
+
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-public interface ProductRepository extends ReactiveCrudRepository<ProductEntity, String> {
+public interface ProductRepository extends ReactiveCrudRepository<ProductEntity, String>, ProductRepositoryCustom {
     Mono<ProductEntity> findByProductId(int productId);
+    Flux<ProductEntity> findByProductIdInOrderByProductId(Collection<Integer> productIds);
+
+    /**
+     * @return the number of deleted products, deleted with one command without loading them
+     */
+    Mono<Long> deleteByProductId(int productId);
 }
@@ -0,0 +1,12 @@
+package com.yoichitgy.microservices.core.product.persistence;
+
+import reactor.core.publisher.Mono;
+
+public interface ProductRepositoryCustom {
+    /**
+     * Inserts the product with one upsert keyed on the unique productId index, an existing product is left unchanged.
+     *
+     * @return true if the product was inserted, false if it already existed
+     */
+    Mono<Boolean> insertIfAbsent(ProductEntity entity);
+}
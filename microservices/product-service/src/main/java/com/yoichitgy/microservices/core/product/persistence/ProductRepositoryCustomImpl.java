@@ -0,0 +1,30 @@
+package com.yoichitgy.microservices.core.product.persistence;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Update;
+
+import reactor.core.publisher.Mono;
+
+public class ProductRepositoryCustomImpl implements ProductRepositoryCustom {
+    private final ReactiveMongoOperations mongoOperations;
+
+    @Autowired
+    public ProductRepositoryCustomImpl(ReactiveMongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    @Override
+    public Mono<Boolean> insertIfAbsent(ProductEntity entity) {
+        // Only $setOnInsert, incl. the version, so that an existing product is not written at all
+        var update = new Update()
+            .setOnInsert("name", entity.getName())
+            .setOnInsert("weight", entity.getWeight())
+            .setOnInsert("version", 0);
+        return mongoOperations.upsert(query(where("productId").is(entity.getProductId())), update, ProductEntity.class)
+            .map(result -> result.getUpsertedId() != null);
+    }
+}
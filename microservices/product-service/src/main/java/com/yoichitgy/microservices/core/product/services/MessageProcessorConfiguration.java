@@ -1,27 +1,57 @@
 package com.yoichitgy.microservices.core.product.services;
 
+import java.time.Duration;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import com.yoichitgy.api.core.product.Product;
-import com.yoichitgy.api.core.product.ProductService;
 import com.yoichitgy.api.event.Event;
 import com.yoichitgy.api.exceptions.EventProcessingException;
+import com.yoichitgy.api.exceptions.InvalidInputException;
+import com.yoichitgy.util.messaging.EventBatchProcessor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.support.MessageBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @Configuration
 public class MessageProcessorConfiguration {
     private static final Logger LOG = LoggerFactory.getLogger(MessageProcessorConfiguration.class);
 
-    private final ProductService productService;
+    private final ProductServiceImpl productService;
+    private final StreamBridge streamBridge;
+    private final int batchMaxSize;
+    private final Duration batchMaxWait;
+    private final int lanes;
+    private final int laneQueueDepth;
+    private final MeterRegistry meterRegistry;
 
     @Autowired
-    public MessageProcessorConfiguration(ProductService productService) {
+    public MessageProcessorConfiguration(
+        ProductServiceImpl productService,
+        StreamBridge streamBridge,
+        @Value("${app.batchConsumer.maxSize:500}") int batchMaxSize,
+        @Value("${app.batchConsumer.maxWait:100ms}") Duration batchMaxWait,
+        @Value("${app.batchConsumer.lanes:4}") int lanes,
+        @Value("${app.batchConsumer.laneQueueDepth:500}") int laneQueueDepth,
+        MeterRegistry meterRegistry
+    ) {
         this.productService = productService;
+        this.streamBridge = streamBridge;
+        this.batchMaxSize = batchMaxSize;
+        this.batchMaxWait = batchMaxWait;
+        this.lanes = lanes;
+        this.laneQueueDepth = laneQueueDepth;
+        this.meterRegistry = meterRegistry;
     }
 
     @Bean
@@ -33,7 +63,18 @@ public class MessageProcessorConfiguration {
                 case CREATE:
                     var product = event.getData();
                     LOG.info("Create product with ID: {}", product.getProductId());
-                    productService.createProduct(product).block();
+                    // A redelivered event finds the data already created and does nothing
+                    productService.createProductIfAbsent(product).block();
+                    break;
+                case CREATE_BATCH:
+                    var products = event.getBatch();
+                    LOG.info("Create {} products", products.size());
+                    // A redelivered batch fails in bulk on a duplicate key, its products are then created one by one
+                    productService.createProducts(products).then()
+                        .onErrorResume(InvalidInputException.class, ex -> Flux.fromIterable(products)
+                            .concatMap(productService::createProductIfAbsent)
+                            .then())
+                        .block();
                     break;
                 case DELETE:
                     int productId = event.getKey();
@@ -41,11 +82,42 @@ public class MessageProcessorConfiguration {
                     productService.deleteProduct(productId).block();
                     break;
                 default:
-                    String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
+                    String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE, CREATE_BATCH or DELETE event";
                     LOG.warn(errorMessage);
                     throw new EventProcessingException(errorMessage);
             }
             LOG.info("Message processing done!");
         };
     }
+
+    /**
+     * Processes the events in batches with bulk creates, and the events of different products concurrently in lanes.
+     * Used instead of messageProcessor in the streaming_batch profile, where the events are acknowledged when they
+     * are received, so the events that failed are sent to the DLQ of the input binding through deadLetters-out-0.
+     */
+    @Bean
+    public Function<Flux<Event<Integer, Product>>, Mono<Void>> messageBatchProcessor() {
+        var processor = new EventBatchProcessor<Integer, Product>(
+            "products",
+            productService::createProducts,
+            productService::createProductIfAbsent,
+            productService::deleteProduct,
+            this::deadLetter,
+            batchMaxSize,
+            batchMaxWait,
+            lanes,
+            laneQueueDepth,
+            meterRegistry
+        );
+        return processor::process;
+    }
+
+    private void deadLetter(Event<Integer, ?> event, Throwable ex) {
+        var message = MessageBuilder.withPayload(event)
+            .setHeader("x-exception-message", String.valueOf(ex.getMessage()))
+            .build();
+        if (!streamBridge.send("deadLetters-out-0", message)) {
+            LOG.error("Lost event of key {} that failed and could not be dead-lettered", event.getKey());
+        }
+    }
 }
@@ -3,6 +3,7 @@ package com.yoichitgy.microservices.core.product.services;
 import static java.util.logging.Level.FINE;
 
 import java.time.Duration;
+import java.util.List;
 import java.util.Random;
 
 import org.slf4j.Logger;
@@ -20,6 +21,7 @@ import com.yoichitgy.microservices.core.product.persistence.ProductEntity;
 import com.yoichitgy.microservices.core.product.persistence.ProductRepository;
 import com.yoichitgy.util.http.ServiceUtil;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @RestController
@@ -54,6 +56,47 @@ public class ProductServiceImpl implements ProductService {
             .map(e -> mapper.entityToApi(e));
     }
 
+    /**
+     * Creates the product unless a product with the same productId exists, used for redelivered CREATE events.
+     * Not part of the API, only the message processors call it.
+     *
+     * @return the created product, or empty if it already existed
+     */
+    public Mono<Product> createProductIfAbsent(Product body) {
+        int productId = body.getProductId();
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+
+        var entity = mapper.apiToEntity(body);
+        return repository.insertIfAbsent(entity)
+            .log(LOG.getName(), FINE)
+            .doOnNext(created -> {
+                if (!created) {
+                    LOG.debug("createProductIfAbsent: a product with productId {} already exists", productId);
+                }
+            })
+            .filter(created -> created)
+            .map(created -> mapper.entityToApi(entity));
+    }
+
+    @Override
+    public Flux<Product> createProducts(List<Product> body) {
+        body.stream().filter(p -> p.getProductId() < 1).findFirst().ifPresent(p -> {
+            throw new InvalidInputException("Invalid productId: " + p.getProductId());
+        });
+
+        // New entities are saved with one insert of many documents
+        var entities = body.stream().map(mapper::apiToEntity).toList();
+        return repository.saveAll(entities)
+            .log(LOG.getName(), FINE)
+            .onErrorMap(
+                DuplicateKeyException.class,
+                ex -> new InvalidInputException("Duplicate key in a batch of " + body.size() + " products")
+            )
+            .map(e -> mapper.entityToApi(e));
+    }
+
     @Override
     public Mono<Product> getProduct(HttpHeaders headers, int productId, int delay, int faultPercent) {
         if (productId < 1) {
@@ -75,6 +118,22 @@ public class ProductServiceImpl implements ProductService {
             });
     }
 
+    @Override
+    public Flux<Product> getProducts(HttpHeaders headers, List<Integer> productIds) {
+        productIds.stream().filter(id -> id < 1).findFirst().ifPresent(id -> {
+            throw new InvalidInputException("Invalid productId: " + id);
+        });
+        LOG.debug("Will get product info for {} ids", productIds.size());
+
+        return repository.findByProductIdInOrderByProductId(productIds)
+            .log(LOG.getName(), FINE)
+            .map(e -> {
+                var api = mapper.entityToApi(e);
+                api.setServiceAddress(serviceUtil.getServiceAddress());
+                return api;
+            });
+    }
+
     @Override
     public Mono<Void> deleteProduct(int productId) {
         if (productId < 1) {
@@ -82,9 +141,9 @@ public class ProductServiceImpl implements ProductService {
         }
         LOG.debug("deleteProduct: tries to delete an entity with productId: {}", productId);
 
-        return repository.findByProductId(productId)
-            .log(LOG.getName(), FINE)
-            .flatMap(e -> repository.delete(e));
+        return repository.deleteByProductId(productId)
+            .doOnNext(count -> LOG.debug("deleteProduct: deleted {} entities with productId: {}", count, productId))
+            .then();
     }
 
     private ProductEntity throwErrorIfBadLuck(ProductEntity entity, int faultPercent) {
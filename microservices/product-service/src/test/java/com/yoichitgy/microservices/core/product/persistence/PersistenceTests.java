@@ -1,5 +1,7 @@
 package com.yoichitgy.microservices.core.product.persistence;
 
+import java.util.List;
+
 import com.yoichitgy.microservices.core.product.ContainerTestBase;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -64,6 +66,13 @@ class PersistenceTests extends ContainerTestBase {
         StepVerifier.create(repository.existsById(savedEntity.getId())).expectNext(false).verifyComplete();
     }
 
+    @Test
+    void deleteByProductId() {
+        StepVerifier.create(repository.deleteByProductId(savedEntity.getProductId())).expectNext(1L).verifyComplete();
+        StepVerifier.create(repository.existsById(savedEntity.getId())).expectNext(false).verifyComplete();
+        StepVerifier.create(repository.deleteByProductId(savedEntity.getProductId())).expectNext(0L).verifyComplete();
+    }
+
     @Test
     void getByProductId() {
         StepVerifier.create(repository.findByProductId(savedEntity.getProductId()))
@@ -71,6 +80,18 @@ class PersistenceTests extends ContainerTestBase {
             .verifyComplete();
     }
 
+    @Test
+    void getByProductIds() {
+        var newEntity = new ProductEntity(2, "n", 2);
+        repository.save(newEntity).block();
+        repository.save(new ProductEntity(3, "n", 3)).block();
+
+        StepVerifier.create(repository.findByProductIdInOrderByProductId(List.of(1, 2, 4)))
+            .expectNext(savedEntity)
+            .expectNext(newEntity)
+            .verifyComplete();
+    }
+
     @Test
     void duplicateError() {
         var entity = new ProductEntity(savedEntity.getProductId(), "n", 1);
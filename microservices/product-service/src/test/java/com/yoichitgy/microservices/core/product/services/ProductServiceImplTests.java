@@ -7,8 +7,10 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import com.yoichitgy.api.core.product.Product;
+import com.yoichitgy.api.core.product.ProductService;
 import com.yoichitgy.api.event.Event;
 import com.yoichitgy.api.event.Event.Type;
 import com.yoichitgy.api.exceptions.InvalidInputException;
@@ -25,6 +27,10 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
 @SpringBootTest(
     webEnvironment = WebEnvironment.RANDOM_PORT,
     properties = {
@@ -37,8 +43,15 @@ class ProductServiceImplTests extends ContainerTestBase {
     @Autowired
     private ProductRepository repository;
     @Autowired
+    private ProductService productService;
+    @Autowired
     @Qualifier("messageProcessor")
     private Consumer<Event<Integer, Product>> messageProcessor;
+    @Autowired
+    @Qualifier("messageBatchProcessor")
+    private Function<Flux<Event<Integer, Product>>, Mono<Void>> messageBatchProcessor;
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     @BeforeEach
     void setupDb() {
@@ -58,6 +71,24 @@ class ProductServiceImplTests extends ContainerTestBase {
             .jsonPath("$.productId").isEqualTo(productId);
     }
 
+    @Test
+    void getProductsByIds() {
+        sendCreateProductEvent(2);
+        sendCreateProductEvent(1);
+        sendCreateProductEvent(3);
+
+        client.get()
+            .uri("/product?productIds=1,2,13")
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isEqualTo(HttpStatus.OK)
+            .expectHeader().contentType(MediaType.APPLICATION_JSON)
+            .expectBody()
+            .jsonPath("$.length()").isEqualTo(2)
+            .jsonPath("$[0].productId").isEqualTo(1)
+            .jsonPath("$[1].productId").isEqualTo(2);
+    }
+
     @Test
     void duplicateError() {
         int productId = 1;
@@ -67,12 +98,26 @@ class ProductServiceImplTests extends ContainerTestBase {
 
         var thrown = assertThrows(
             InvalidInputException.class,
-            () -> sendCreateProductEvent(productId),
+            () -> productService.createProduct(product(productId)).block(),
             "Expected a InvalidInputException here!"
         );
         assertEquals("Duplicate key, productId: " + productId, thrown.getMessage());
     }
 
+    @Test
+    void duplicateCreateEventIgnored() {
+        int productId = 1;
+
+        sendCreateProductEvent(productId);
+        var event = new Event<Integer, Product>(Type.CREATE, productId, new Product(productId, "Other name", 2, "SA"));
+        messageProcessor.accept(event);
+
+        var entity = repository.findByProductId(productId).block();
+        assertEquals("Name " + productId, entity.getName());
+        assertEquals(0, (int)entity.getVersion());
+        assertEquals(1, (long)repository.count().block());
+    }
+
     @Test
     void deleteProduct() {
         int productId = 1;
@@ -86,6 +131,31 @@ class ProductServiceImplTests extends ContainerTestBase {
         sendDeleteProductEvent(productId);    
     }
    
+    @Test
+    void processEventBatch() {
+        sendCreateProductEvent(3);
+
+        // The first create of product 1 is coalesced away by the delete after it,
+        // the duplicate create of product 2 is skipped
+        var events = Flux.just(
+            new Event<Integer, Product>(Type.CREATE, 1, new Product(1, "Name 1", 1, "SA")),
+            new Event<Integer, Product>(Type.CREATE, 2, new Product(2, "Name 2", 2, "SA")),
+            new Event<Integer, Product>(Type.DELETE, 1, null),
+            new Event<Integer, Product>(Type.CREATE, 1, new Product(1, "Name 1b", 1, "SA")),
+            new Event<Integer, Product>(Type.DELETE, 3, null),
+            new Event<Integer, Product>(Type.CREATE, 2, new Product(2, "Name 2b", 2, "SA"))
+        );
+        messageBatchProcessor.apply(events).block();
+
+        assertEquals("Name 1b", repository.findByProductId(1).block().getName());
+        assertEquals("Name 2", repository.findByProductId(2).block().getName());
+        assertNull(repository.findByProductId(3).block());
+        assertEquals(2, (long)repository.count().block());
+
+        var coalescedWrites = meterRegistry.get("events.coalesced.writes").tag("name", "products").counter();
+        assertEquals(1, (long)coalescedWrites.count());
+    }
+
     @Test
     void getProductInvalidParameterString() {
         getAndVerifyProduct("/no-integer", HttpStatus.BAD_REQUEST)
@@ -124,11 +194,14 @@ class ProductServiceImplTests extends ContainerTestBase {
     }
 
     private void sendCreateProductEvent(int productId) {
-        var product = new Product(productId, "Name " + productId, productId, "SA");
-        var event = new Event<Integer, Product>(Type.CREATE, productId, product);
+        var event = new Event<Integer, Product>(Type.CREATE, productId, product(productId));
         messageProcessor.accept(event);
     }
 
+    private Product product(int productId) {
+        return new Product(productId, "Name " + productId, productId, "SA");
+    }
+
     private void sendDeleteProductEvent(int productId) {
         var event = new Event<Integer, Product>(Type.DELETE, productId, null);
         messageProcessor.accept(event);
@@ -1,9 +1,22 @@
 package com.yoichitgy.microservices.core.recommendation.persistence;
 
+import java.util.Collection;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-public interface RecommendationRepository extends ReactiveCrudRepository<RecommendationEntity, String> {
+public interface RecommendationRepository extends ReactiveCrudRepository<RecommendationEntity, String>, RecommendationRepositoryCustom {
     Flux<RecommendationEntity> findByProductId(int productId);
+    Flux<RecommendationEntity> findByProductIdAndRecommendationIdGreaterThanOrderByRecommendationId(
+        int productId, int afterId, Pageable pageable
+    );
+    Flux<RecommendationEntity> findByProductIdInOrderByProductId(Collection<Integer> productIds);
+
+    /**
+     * @return the number of deleted recommendations, deleted with one command without loading them
+     */
+    Mono<Long> deleteByProductId(int productId);
 }
@@ -0,0 +1,13 @@
+package com.yoichitgy.microservices.core.recommendation.persistence;
+
+import reactor.core.publisher.Mono;
+
+public interface RecommendationRepositoryCustom {
+    /**
+     * Inserts the recommendation with one upsert keyed on the unique (productId, recommendationId) index,
+     * an existing recommendation is left unchanged.
+     *
+     * @return true if the recommendation was inserted, false if it already existed
+     */
+    Mono<Boolean> insertIfAbsent(RecommendationEntity entity);
+}
@@ -0,0 +1,35 @@
+package com.yoichitgy.microservices.core.recommendation.persistence;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Update;
+
+import reactor.core.publisher.Mono;
+
+public class RecommendationRepositoryCustomImpl implements RecommendationRepositoryCustom {
+    private final ReactiveMongoOperations mongoOperations;
+
+    @Autowired
+    public RecommendationRepositoryCustomImpl(ReactiveMongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    @Override
+    public Mono<Boolean> insertIfAbsent(RecommendationEntity entity) {
+        var query = query(
+            where("productId").is(entity.getProductId())
+                .and("recommendationId").is(entity.getRecommendationId())
+        );
+        // Setting the version on insert keeps the template from incrementing it on existing recommendations
+        var update = new Update()
+            .setOnInsert("author", entity.getAuthor())
+            .setOnInsert("rating", entity.getRating())
+            .setOnInsert("content", entity.getContent())
+            .setOnInsert("version", 0);
+        return mongoOperations.upsert(query, update, RecommendationEntity.class)
+            .map(result -> result.getUpsertedId() != null);
+    }
+}
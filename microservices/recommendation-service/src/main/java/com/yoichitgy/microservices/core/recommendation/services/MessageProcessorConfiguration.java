@@ -1,27 +1,57 @@
 package com.yoichitgy.microservices.core.recommendation.services;
 
+import java.time.Duration;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import com.yoichitgy.api.core.recommendation.Recommendation;
-import com.yoichitgy.api.core.recommendation.RecommendationService;
 import com.yoichitgy.api.event.Event;
 import com.yoichitgy.api.exceptions.EventProcessingException;
+import com.yoichitgy.api.exceptions.InvalidInputException;
+import com.yoichitgy.util.messaging.EventBatchProcessor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.support.MessageBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @Configuration
 public class MessageProcessorConfiguration {
     private static final Logger LOG = LoggerFactory.getLogger(MessageProcessorConfiguration.class);
 
-    private final RecommendationService recommendationService;
+    private final RecommendationServiceImpl recommendationService;
+    private final StreamBridge streamBridge;
+    private final int batchMaxSize;
+    private final Duration batchMaxWait;
+    private final int lanes;
+    private final int laneQueueDepth;
+    private final MeterRegistry meterRegistry;
 
     @Autowired
-    public MessageProcessorConfiguration(RecommendationService recommendationService) {
+    public MessageProcessorConfiguration(
+        RecommendationServiceImpl recommendationService,
+        StreamBridge streamBridge,
+        @Value("${app.batchConsumer.maxSize:500}") int batchMaxSize,
+        @Value("${app.batchConsumer.maxWait:100ms}") Duration batchMaxWait,
+        @Value("${app.batchConsumer.lanes:4}") int lanes,
+        @Value("${app.batchConsumer.laneQueueDepth:500}") int laneQueueDepth,
+        MeterRegistry meterRegistry
+    ) {
         this.recommendationService = recommendationService;
+        this.streamBridge = streamBridge;
+        this.batchMaxSize = batchMaxSize;
+        this.batchMaxWait = batchMaxWait;
+        this.lanes = lanes;
+        this.laneQueueDepth = laneQueueDepth;
+        this.meterRegistry = meterRegistry;
     }
 
     @Bean
@@ -37,7 +67,18 @@ public class MessageProcessorConfiguration {
                         recommendation.getProductId(),
                         recommendation.getRecommendationId()
                     );
-                    recommendationService.createRecommendation(recommendation).block();
+                    // A redelivered event finds the data already created and does nothing
+                    recommendationService.createRecommendationIfAbsent(recommendation).block();
+                    break;
+                case CREATE_BATCH:
+                    var recommendations = event.getBatch();
+                    LOG.info("Create {} recommendations with ProductID: {}", recommendations.size(), event.getKey());
+                    // Falls back to one by one creates if absent, when a redelivered batch fails on a duplicate key
+                    recommendationService.createRecommendations(recommendations).then()
+                        .onErrorResume(InvalidInputException.class, ex -> Flux.fromIterable(recommendations)
+                            .concatMap(recommendationService::createRecommendationIfAbsent)
+                            .then())
+                        .block();
                     break;
                 case DELETE:
                     var productId = event.getKey();
@@ -45,11 +86,42 @@ public class MessageProcessorConfiguration {
                     recommendationService.deleteRecommendations(productId).block();
                     break;
                 default:
-                    var errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
+                    var errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE, CREATE_BATCH or DELETE event";
                     LOG.warn(errorMessage);
                     throw new EventProcessingException(errorMessage);      
             }   
             LOG.info("Message processing done!");
         };
     }
+
+    /**
+     * Processes the events in batches with bulk creates, and the events of different products concurrently in lanes.
+     * Used instead of messageProcessor in the streaming_batch profile, where the events are acknowledged when they
+     * are received, so the events that failed are sent to the DLQ of the input binding through deadLetters-out-0.
+     */
+    @Bean
+    public Function<Flux<Event<Integer, Recommendation>>, Mono<Void>> messageBatchProcessor() {
+        var processor = new EventBatchProcessor<Integer, Recommendation>(
+            "recommendations",
+            recommendationService::createRecommendations,
+            recommendationService::createRecommendationIfAbsent,
+            recommendationService::deleteRecommendations,
+            this::deadLetter,
+            batchMaxSize,
+            batchMaxWait,
+            lanes,
+            laneQueueDepth,
+            meterRegistry
+        );
+        return processor::process;
+    }
+
+    private void deadLetter(Event<Integer, ?> event, Throwable ex) {
+        var message = MessageBuilder.withPayload(event)
+            .setHeader("x-exception-message", String.valueOf(ex.getMessage()))
+            .build();
+        if (!streamBridge.send("deadLetters-out-0", message)) {
+            LOG.error("Lost event of key {} that failed and could not be dead-lettered", event.getKey());
+        }
+    }
 }
@@ -2,10 +2,14 @@ package com.yoichitgy.microservices.core.recommendation.services;
 
 import static java.util.logging.Level.FINE;
 
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -25,16 +29,19 @@ public class RecommendationServiceImpl implements RecommendationService {
     private final RecommendationRepository repository;
     private final RecommendationMapper mapper;
     private final ServiceUtil serviceUtil;
+    private final int maxPageSize;
     
     @Autowired
     public RecommendationServiceImpl(
         RecommendationRepository repository,
         RecommendationMapper mapper,
-        ServiceUtil serviceUtil
+        ServiceUtil serviceUtil,
+        @Value("${app.maxPageSize:1000}") int maxPageSize
     ) {
         this.repository = repository;
         this.mapper = mapper;
         this.serviceUtil = serviceUtil;
+        this.maxPageSize = maxPageSize;
     }
 
     @Override
@@ -56,6 +63,48 @@ public class RecommendationServiceImpl implements RecommendationService {
             .map(e -> mapper.entityToApi(e));
     }
 
+    /**
+     * Creates the recommendation unless one with the same productId and recommendationId exists,
+     * used for redelivered CREATE events. Not part of the API, only the message processors call it.
+     *
+     * @return the created recommendation, or empty if it already existed
+     */
+    public Mono<Recommendation> createRecommendationIfAbsent(Recommendation body) {
+        int productId = body.getProductId();
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+
+        var entity = mapper.apiToEntity(body);
+        return repository.insertIfAbsent(entity)
+            .log(LOG.getName(), FINE)
+            .doOnNext(created -> {
+                if (!created) {
+                    LOG.debug("createRecommendationIfAbsent: recommendation {}/{} already exists",
+                        productId, body.getRecommendationId());
+                }
+            })
+            .filter(created -> created)
+            .map(created -> mapper.entityToApi(entity));
+    }
+
+    @Override
+    public Flux<Recommendation> createRecommendations(List<Recommendation> body) {
+        body.stream().filter(r -> r.getProductId() < 1).findFirst().ifPresent(r -> {
+            throw new InvalidInputException("Invalid productId: " + r.getProductId());
+        });
+
+        // New entities are saved with one insert of many documents
+        var entities = body.stream().map(mapper::apiToEntity).toList();
+        return repository.saveAll(entities)
+            .log(LOG.getName(), FINE)
+            .onErrorMap(
+                DuplicateKeyException.class,
+                ex -> new InvalidInputException("Duplicate key in a batch of " + body.size() + " recommendations")
+            )
+            .map(e -> mapper.entityToApi(e));
+    }
+
     @Override
     public Flux<Recommendation> getRecommendations(HttpHeaders headers, int productId) {
         if (productId < 1) {
@@ -72,6 +121,65 @@ public class RecommendationServiceImpl implements RecommendationService {
             });
     }
 
+    @Override
+    public Flux<Recommendation> getRecommendations(HttpHeaders headers, int productId, int limit, int afterId) {
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+        if (limit < 1 || limit > maxPageSize) {
+            throw new InvalidInputException("Invalid limit: " + limit);
+        }
+        LOG.info("Will get {} recommendations after id={} for product with id={}", limit, afterId, productId);
+
+        // Uses the unique (productId, recommendationId) index, so no recommendations before afterId are read
+        var page = PageRequest.of(0, limit);
+        return repository.findByProductIdAndRecommendationIdGreaterThanOrderByRecommendationId(productId, afterId, page)
+            .log(LOG.getName(), FINE)
+            .map(e -> {
+                var api = mapper.entityToApi(e);
+                api.setServiceAddress(serviceUtil.getServiceAddress());
+                return api;
+            });
+    }
+
+    @Override
+    public Flux<Recommendation> getRecommendations(HttpHeaders headers, List<Integer> productIds) {
+        productIds.stream().filter(id -> id < 1).findFirst().ifPresent(id -> {
+            throw new InvalidInputException("Invalid productId: " + id);
+        });
+        LOG.info("Will get recommendations for {} products", productIds.size());
+
+        return repository.findByProductIdInOrderByProductId(productIds)
+            .log(LOG.getName(), FINE)
+            .map(e -> {
+                var api = mapper.entityToApi(e);
+                api.setServiceAddress(serviceUtil.getServiceAddress());
+                return api;
+            });
+    }
+
+    @Override
+    public Flux<Recommendation> getRecommendations(HttpHeaders headers, List<Integer> productIds, int limit) {
+        productIds.stream().filter(id -> id < 1).findFirst().ifPresent(id -> {
+            throw new InvalidInputException("Invalid productId: " + id);
+        });
+        if (limit < 1 || limit > maxPageSize) {
+            throw new InvalidInputException("Invalid limit: " + limit);
+        }
+        LOG.info("Will get {} recommendations each for {} products", limit, productIds.size());
+
+        // One indexed page query per product, so no more than limit recommendations of a product are read
+        var page = PageRequest.of(0, limit);
+        return Flux.fromIterable(productIds)
+            .concatMap(productId -> repository.findByProductIdAndRecommendationIdGreaterThanOrderByRecommendationId(productId, 0, page))
+            .log(LOG.getName(), FINE)
+            .map(e -> {
+                var api = mapper.entityToApi(e);
+                api.setServiceAddress(serviceUtil.getServiceAddress());
+                return api;
+            });
+    }
+
     @Override
     public Mono<Void> deleteRecommendations(int productId) {
         if (productId < 1) {
@@ -79,6 +187,8 @@ public class RecommendationServiceImpl implements RecommendationService {
         }
            
         LOG.debug("deleteRecommendations: tries to delete recommendations for the product with productId: {}", productId);
-        return repository.deleteAll(repository.findByProductId(productId));
+        return repository.deleteByProductId(productId)
+            .doOnNext(count -> LOG.debug("deleteRecommendations: deleted {} recommendations for the product with productId: {}", count, productId))
+            .then();
     }
 }
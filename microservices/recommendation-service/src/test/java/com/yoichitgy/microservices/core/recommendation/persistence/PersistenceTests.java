@@ -2,6 +2,8 @@ package com.yoichitgy.microservices.core.recommendation.persistence;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.List;
+
 import com.yoichitgy.microservices.core.recommendation.ContainerTestBase;
 
 import org.junit.jupiter.api.Test;
@@ -10,6 +12,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.dao.OptimisticLockingFailureException;
 
 @DataMongoTest(
@@ -56,6 +59,18 @@ class PersistenceTests extends ContainerTestBase {
         assertFalse(repository.existsById(savedEntity.getId()).block());
     }
 
+    @Test
+    void deleteByProductId() {
+        repository.save(new RecommendationEntity(1, 3, "a", 3, "c")).block();
+        repository.save(new RecommendationEntity(2, 1, "a", 3, "c")).block();
+
+        assertEquals(2, repository.deleteByProductId(1).block());
+        assertEquals(0, repository.findByProductId(1).count().block());
+        assertEquals(1, repository.findByProductId(2).count().block());
+
+        assertEquals(0, repository.deleteByProductId(1).block());
+    }
+
     @Test
     void getByProductId() {
         var entityList = repository.findByProductId(savedEntity.getProductId()).collectList().block();
@@ -64,6 +79,33 @@ class PersistenceTests extends ContainerTestBase {
         assertEquals(savedEntity, entityList.get(0));
     }
 
+    @Test
+    void getByProductIds() {
+        repository.save(new RecommendationEntity(2, 1, "a", 3, "c")).block();
+        repository.save(new RecommendationEntity(3, 1, "a", 3, "c")).block();
+
+        var entityList = repository.findByProductIdInOrderByProductId(List.of(1, 2)).collectList().block();
+
+        assertEquals(2, entityList.size());
+        assertEquals(savedEntity, entityList.get(0));
+        assertEquals(2, entityList.get(1).getProductId());
+    }
+
+    @Test
+    void getPageByProductId() {
+        repository.save(new RecommendationEntity(1, 4, "a", 3, "c")).block();
+        repository.save(new RecommendationEntity(1, 3, "a", 3, "c")).block();
+        repository.save(new RecommendationEntity(1, 5, "a", 3, "c")).block();
+
+        var entityList = repository
+            .findByProductIdAndRecommendationIdGreaterThanOrderByRecommendationId(1, 2, PageRequest.of(0, 2))
+            .collectList().block();
+
+        assertEquals(2, entityList.size());
+        assertEquals(3, entityList.get(0).getRecommendationId());
+        assertEquals(4, entityList.get(1).getRecommendationId());
+    }
+
     @Test
     void duplicateError() {
         assertThrows(DuplicateKeyException.class, () -> {
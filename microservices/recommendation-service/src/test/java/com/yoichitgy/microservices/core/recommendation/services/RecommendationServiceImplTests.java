@@ -7,6 +7,7 @@ import static reactor.core.publisher.Mono.just;
 import java.util.function.Consumer;
 
 import com.yoichitgy.api.core.recommendation.Recommendation;
+import com.yoichitgy.api.core.recommendation.RecommendationService;
 import com.yoichitgy.api.event.Event;
 import com.yoichitgy.api.event.Event.Type;
 import com.yoichitgy.api.exceptions.InvalidInputException;
@@ -35,6 +36,8 @@ class RecommendationServiceImplTests extends ContainerTestBase {
     @Autowired
     private RecommendationRepository repository;
     @Autowired
+    private RecommendationService recommendationService;
+    @Autowired
     @Qualifier("messageProcessor")
     private Consumer<Event<Integer, Recommendation>> messageProcessor;
 
@@ -58,6 +61,58 @@ class RecommendationServiceImplTests extends ContainerTestBase {
             .jsonPath("$[2].recommendationId").isEqualTo(3);
     }
 
+    @Test
+    void getRecommendationsByProductIds() {
+        sendCreateRecommendationEvent(2, 1);
+        sendCreateRecommendationEvent(1, 1);
+        sendCreateRecommendationEvent(1, 2);
+        sendCreateRecommendationEvent(3, 1);
+
+        getAndVerifyRecommendationsByProductId("?productIds=1,2", HttpStatus.OK)
+            .jsonPath("$.length()").isEqualTo(3)
+            .jsonPath("$[0].productId").isEqualTo(1)
+            .jsonPath("$[1].productId").isEqualTo(1)
+            .jsonPath("$[2].productId").isEqualTo(2);
+    }
+
+    @Test
+    void getRecommendationsPageByProductIds() {
+        sendCreateRecommendationEvent(2, 1);
+        sendCreateRecommendationEvent(1, 2);
+        sendCreateRecommendationEvent(1, 1);
+        sendCreateRecommendationEvent(1, 3);
+
+        getAndVerifyRecommendationsByProductId("?productIds=1,2&limit=2", HttpStatus.OK)
+            .jsonPath("$.length()").isEqualTo(3)
+            .jsonPath("$[0].recommendationId").isEqualTo(1)
+            .jsonPath("$[1].recommendationId").isEqualTo(2)
+            .jsonPath("$[2].productId").isEqualTo(2);
+    }
+
+    @Test
+    void getRecommendationsPage() {
+        sendCreateRecommendationEvent(1, 1);
+        sendCreateRecommendationEvent(1, 2);
+        sendCreateRecommendationEvent(1, 3);
+
+        getAndVerifyRecommendationsByProductId("?productId=1&limit=1&afterId=1", HttpStatus.OK)
+            .jsonPath("$.length()").isEqualTo(1)
+            .jsonPath("$[0].recommendationId").isEqualTo(2);
+    }
+
+    @Test
+    void getRecommendationsPageInvalidLimit() {
+        getAndVerifyRecommendationsByProductId("?productId=1&limit=0", HttpStatus.UNPROCESSABLE_ENTITY)
+            .jsonPath("$.message").isEqualTo("Invalid limit: 0");
+    }
+
+    @Test
+    void getRecommendationsPageTooLarge() {
+        // A page is capped at app.maxPageSize, 1000 by default
+        getAndVerifyRecommendationsByProductId("?productId=1&limit=1001", HttpStatus.UNPROCESSABLE_ENTITY)
+            .jsonPath("$.message").isEqualTo("Invalid limit: 1001");
+    }
+
     @Test
     void duplicateError() {
         int productId = 1;
@@ -68,13 +123,22 @@ class RecommendationServiceImplTests extends ContainerTestBase {
     
         var thrown = assertThrows(
             InvalidInputException.class,
-            () -> sendCreateRecommendationEvent(productId, recommendationId),
+            () -> recommendationService.createRecommendation(recommendation(productId, recommendationId)).block(),
             "Expected a InvalidInputException here!"
         );
         assertEquals("Duplicate key, productId: 1, recommendationId: 1", thrown.getMessage());
       
         assertEquals(1, repository.count().block());
     }
+
+    @Test
+    void duplicateCreateEventIgnored() {
+        sendCreateRecommendationEvent(1, 1);
+        sendCreateRecommendationEvent(1, 1);
+
+        assertEquals(1, repository.count().block());
+        assertEquals(0, (int)repository.findByProductId(1).blockFirst().getVersion());
+    }
   
     @Test
     void deleteRecommendations() {
@@ -119,6 +183,13 @@ class RecommendationServiceImplTests extends ContainerTestBase {
             .jsonPath("$.message").isEqualTo("Invalid productId: " + productIdInvalid);
     }
 
+    @Test
+    void getRecommendationsByProductIdsInvalidParameterNegativeValue() {
+        getAndVerifyRecommendationsByProductId("?productIds=1,-1", HttpStatus.UNPROCESSABLE_ENTITY)
+            .jsonPath("$.path").isEqualTo("/recommendation")
+            .jsonPath("$.message").isEqualTo("Invalid productId: -1");
+    }
+
     private WebTestClient.BodyContentSpec getAndVerifyRecommendationsByProductId(int productId, HttpStatus expectedStatus) {
         return getAndVerifyRecommendationsByProductId("?productId=" + productId, expectedStatus);
     }
@@ -134,7 +205,12 @@ class RecommendationServiceImplTests extends ContainerTestBase {
     }
 
     private void sendCreateRecommendationEvent(int productId, int recommendationId) {
-        var recommendation = new Recommendation(
+        var event = new Event<Integer, Recommendation>(Type.CREATE, productId, recommendation(productId, recommendationId));
+        messageProcessor.accept(event);
+    }
+
+    private Recommendation recommendation(int productId, int recommendationId) {
+        return new Recommendation(
             productId,
             recommendationId,
             "Author " + recommendationId,
@@ -142,8 +218,6 @@ class RecommendationServiceImplTests extends ContainerTestBase {
             "Content " + recommendationId,
             "SA"
         );
-        var event = new Event<Integer, Recommendation>(Type.CREATE, productId, recommendation);
-        messageProcessor.accept(event);
     }
 
     private void sendDeleteRecommendationEvent(int productId) {
@@ -0,0 +1,35 @@
+package com.yoichitgy.microservices.core.review.persistence;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.relational.core.mapping.Table;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The R2DBC mapping of the reviews table, used instead of {@link ReviewEntity} in the r2dbc profile.
+ */
+@Table("reviews")
+@Data
+@NoArgsConstructor
+public class ReactiveReviewEntity {
+    @Id
+    private int id;
+    @Version
+    private int version;
+
+    private int productId;
+    private int reviewId;
+    private String author;
+    private String subject;
+    private String content;
+
+    public ReactiveReviewEntity(int productId, int reviewId, String author, String subject, String content) {
+        this.productId = productId;
+        this.reviewId = reviewId;
+        this.author = author;
+        this.subject = subject;
+        this.content = content;
+    }
+}
@@ -0,0 +1,25 @@
+package com.yoichitgy.microservices.core.review.persistence;
+
+import java.util.Collection;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public interface ReactiveReviewRepository extends R2dbcRepository<ReactiveReviewEntity, Integer> {
+    Flux<ReactiveReviewEntity> findByProductId(int productId);
+
+    Mono<Boolean> existsByProductIdAndReviewId(int productId, int reviewId);
+
+    Flux<ReactiveReviewEntity> findByProductIdAndReviewIdGreaterThanOrderByReviewId(int productId, int afterId, Pageable pageable);
+
+    Flux<ReactiveReviewEntity> findByProductIdInOrderByProductId(Collection<Integer> productIds);
+
+    @Modifying
+    @Query("DELETE FROM reviews WHERE product_id = :productId")
+    Mono<Integer> deleteByProductId(int productId);
+}
@@ -1,11 +1,38 @@
 package com.yoichitgy.microservices.core.review.persistence;
 
+import java.util.Collection;
 import java.util.List;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
 public interface ReviewRepository extends CrudRepository<ReviewEntity, Integer> {
+    @Override
+    <S extends ReviewEntity> List<S> saveAll(Iterable<S> entities);
+
     @Transactional(readOnly = true)
     List<ReviewEntity> findByProductId(int productId);
+
+    @Transactional(readOnly = true)
+    boolean existsByProductIdAndReviewId(int productId, int reviewId);
+
+    @Transactional(readOnly = true)
+    List<ReviewEntity> findByProductIdAndReviewIdGreaterThanOrderByReviewId(int productId, int afterId, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    List<ReviewEntity> findByProductIdInOrderByProductId(Collection<Integer> productIds);
+
+    /**
+     * Deletes the reviews in one statement, without loading them or checking their versions.
+     *
+     * @return the number of deleted reviews
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM ReviewEntity r WHERE r.productId = :productId")
+    int deleteByProductId(@Param("productId") int productId);
 }
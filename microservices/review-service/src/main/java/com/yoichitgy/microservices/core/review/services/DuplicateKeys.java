@@ -0,0 +1,37 @@
+package com.yoichitgy.microservices.core.review.services;
+
+import java.sql.SQLException;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+
+import io.r2dbc.spi.R2dbcException;
+
+/**
+ * Tells a violation of the unique (productId, reviewId) index apart from other integrity violations,
+ * e.g. a value too long for its column, which JPA and R2DBC both report as a DataIntegrityViolationException.
+ */
+final class DuplicateKeys {
+    // ER_DUP_ENTRY of MySQL
+    private static final int MYSQL_DUPLICATE_ENTRY = 1062;
+
+    private DuplicateKeys() {}
+
+    static boolean isDuplicateKey(Throwable ex) {
+        if (ex instanceof DuplicateKeyException) {
+            return true;
+        }
+        if (!(ex instanceof DataIntegrityViolationException)) {
+            return false;
+        }
+        for (var cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException && sqlException.getErrorCode() == MYSQL_DUPLICATE_ENTRY) {
+                return true;
+            }
+            if (cause instanceof R2dbcException r2dbcException && r2dbcException.getErrorCode() == MYSQL_DUPLICATE_ENTRY) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,27 +1,57 @@
 package com.yoichitgy.microservices.core.review.services;
 
+import java.time.Duration;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import com.yoichitgy.api.core.review.Review;
-import com.yoichitgy.api.core.review.ReviewService;
 import com.yoichitgy.api.event.Event;
 import com.yoichitgy.api.exceptions.EventProcessingException;
+import com.yoichitgy.api.exceptions.InvalidInputException;
+import com.yoichitgy.util.messaging.EventBatchProcessor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.support.MessageBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @Configuration
 public class MessageProcessorConfiguration {
     private static final Logger LOG = LoggerFactory.getLogger(MessageProcessorConfiguration.class);
 
-    private final ReviewService reviewService;
+    private final ReviewEventService reviewService;
+    private final StreamBridge streamBridge;
+    private final int batchMaxSize;
+    private final Duration batchMaxWait;
+    private final int lanes;
+    private final int laneQueueDepth;
+    private final MeterRegistry meterRegistry;
   
     @Autowired
-    public MessageProcessorConfiguration(ReviewService reviewService) {
+    public MessageProcessorConfiguration(
+        ReviewEventService reviewService,
+        StreamBridge streamBridge,
+        @Value("${app.batchConsumer.maxSize:500}") int batchMaxSize,
+        @Value("${app.batchConsumer.maxWait:100ms}") Duration batchMaxWait,
+        @Value("${app.batchConsumer.lanes:4}") int lanes,
+        @Value("${app.batchConsumer.laneQueueDepth:500}") int laneQueueDepth,
+        MeterRegistry meterRegistry
+    ) {
         this.reviewService = reviewService;
+        this.streamBridge = streamBridge;
+        this.batchMaxSize = batchMaxSize;
+        this.batchMaxWait = batchMaxWait;
+        this.lanes = lanes;
+        this.laneQueueDepth = laneQueueDepth;
+        this.meterRegistry = meterRegistry;
     }
   
     @Bean
@@ -33,7 +63,18 @@ public class MessageProcessorConfiguration {
                 case CREATE:
                     var review = event.getData();
                     LOG.info("Create review with ID: {}/{}", review.getProductId(), review.getReviewId());
-                    reviewService.createReview(review).block();
+                    // A redelivered event finds the data already created and does nothing
+                    reviewService.createReviewIfAbsent(review).block();
+                    break;
+                case CREATE_BATCH:
+                    var reviews = event.getBatch();
+                    LOG.info("Create {} reviews with ProductID: {}", reviews.size(), event.getKey());
+                    // All reviews are created in one transaction, or, if any of them exists, one by one if absent
+                    reviewService.createReviews(reviews).then()
+                        .onErrorResume(InvalidInputException.class, ex -> Flux.fromIterable(reviews)
+                            .concatMap(reviewService::createReviewIfAbsent)
+                            .then())
+                        .block();
                     break;
                 case DELETE:
                     int productId = event.getKey();
@@ -41,11 +82,42 @@ public class MessageProcessorConfiguration {
                     reviewService.deleteReviews(productId).block();
                     break;
                 default:
-                    var errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
+                    var errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE, CREATE_BATCH or DELETE event";
                     LOG.warn(errorMessage);
                     throw new EventProcessingException(errorMessage);
             }
             LOG.info("Message processing done!");
         };
     }
+
+    /**
+     * Processes the events in batches with bulk creates, and the events of different products concurrently in lanes.
+     * Used instead of messageProcessor in the streaming_batch profile, where the events are acknowledged when they
+     * are received, so the events that failed are sent to the DLQ of the input binding through deadLetters-out-0.
+     */
+    @Bean
+    public Function<Flux<Event<Integer, Review>>, Mono<Void>> messageBatchProcessor() {
+        var processor = new EventBatchProcessor<Integer, Review>(
+            "reviews",
+            reviewService::createReviews,
+            reviewService::createReviewIfAbsent,
+            reviewService::deleteReviews,
+            this::deadLetter,
+            batchMaxSize,
+            batchMaxWait,
+            lanes,
+            laneQueueDepth,
+            meterRegistry
+        );
+        return processor::process;
+    }
+
+    private void deadLetter(Event<Integer, ?> event, Throwable ex) {
+        var message = MessageBuilder.withPayload(event)
+            .setHeader("x-exception-message", String.valueOf(ex.getMessage()))
+            .build();
+        if (!streamBridge.send("deadLetters-out-0", message)) {
+            LOG.error("Lost event of key {} that failed and could not be dead-lettered", event.getKey());
+        }
+    }
 }
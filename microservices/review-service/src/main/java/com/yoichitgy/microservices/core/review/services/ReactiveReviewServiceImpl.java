@@ -0,0 +1,227 @@
+package com.yoichitgy.microservices.core.review.services;
+
+import static java.util.logging.Level.FINE;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.yoichitgy.api.core.review.Review;
+import com.yoichitgy.api.exceptions.InvalidInputException;
+import com.yoichitgy.microservices.core.review.persistence.ReactiveReviewEntity;
+import com.yoichitgy.microservices.core.review.persistence.ReactiveReviewRepository;
+import com.yoichitgy.util.http.ServiceUtil;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking R2DBC persistence, active in the r2dbc profile. Uses the same reviews table as {@link ReviewServiceImpl},
+ * so the two modes can be switched back and forth on the same database.
+ */
+@RestController
+@Profile("r2dbc")
+public class ReactiveReviewServiceImpl implements ReviewEventService {
+    private static final Logger LOG = LoggerFactory.getLogger(ReactiveReviewServiceImpl.class);
+
+    // Takes ids from the same table as the Hibernate generator of ReviewEntity, LAST_INSERT_ID() is per connection
+    private static final String INCREMENT_SEQUENCE = "UPDATE hibernate_sequence SET next_val = LAST_INSERT_ID(next_val + ?)";
+    private static final String SELECT_SEQUENCE = "SELECT CAST(LAST_INSERT_ID() AS SIGNED)";
+
+    private final ReactiveReviewRepository repository;
+    private final R2dbcEntityTemplate template;
+    private final DatabaseClient databaseClient;
+    private final TransactionalOperator transactionalOperator;
+    private final ReviewMapper mapper;
+    private final ServiceUtil serviceUtil;
+    private final int maxPageSize;
+
+    @Autowired
+    public ReactiveReviewServiceImpl(
+        ReactiveReviewRepository repository,
+        R2dbcEntityTemplate template,
+        DatabaseClient databaseClient,
+        TransactionalOperator transactionalOperator,
+        ReviewMapper mapper,
+        ServiceUtil serviceUtil,
+        @Value("${app.maxPageSize:1000}") int maxPageSize
+    ) {
+        this.repository = repository;
+        this.template = template;
+        this.databaseClient = databaseClient;
+        this.transactionalOperator = transactionalOperator;
+        this.mapper = mapper;
+        this.serviceUtil = serviceUtil;
+        this.maxPageSize = maxPageSize;
+    }
+
+    @Override
+    public Mono<Review> createReview(Review body) {
+        int productId = body.getProductId();
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+
+        return insert(body)
+            .doOnNext(e -> LOG.debug("createReview: created a review entity: {}/{}", body.getProductId(), body.getReviewId()))
+            .onErrorMap(
+                DataIntegrityViolationException.class,
+                ex -> new InvalidInputException(String.format(
+                    "Duplicate key, productId: %d, reviewId: %d",
+                    body.getProductId(),
+                    body.getReviewId()
+                ))
+            )
+            .map(mapper::reactiveEntityToApi);
+    }
+
+    private Mono<ReactiveReviewEntity> insert(Review body) {
+        var entity = mapper.apiToReactiveEntity(body);
+        return nextIds(1).flatMap(id -> {
+            entity.setId(id);
+            return template.insert(entity);
+        });
+    }
+
+    @Override
+    public Mono<Review> createReviewIfAbsent(Review body) {
+        int productId = body.getProductId();
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+
+        return repository.existsByProductIdAndReviewId(productId, body.getReviewId())
+            .flatMap(exists -> {
+                if (exists) {
+                    LOG.debug("createReviewIfAbsent: review {}/{} already exists", productId, body.getReviewId());
+                    return Mono.<ReactiveReviewEntity>empty();
+                }
+                return insert(body)
+                    .onErrorResume(DuplicateKeys::isDuplicateKey, ex -> {
+                        LOG.debug("createReviewIfAbsent: review {}/{} was created concurrently", productId, body.getReviewId());
+                        return Mono.empty();
+                    });
+            })
+            .map(mapper::reactiveEntityToApi);
+    }
+
+    @Override
+    public Flux<Review> createReviews(List<Review> body) {
+        body.stream().filter(r -> r.getProductId() < 1).findFirst().ifPresent(r -> {
+            throw new InvalidInputException("Invalid productId: " + r.getProductId());
+        });
+
+        var entities = body.stream().map(mapper::apiToReactiveEntity).toList();
+        return nextIds(entities.size())
+            .flatMapMany(firstId -> Flux.range(0, entities.size())
+                .concatMap(i -> {
+                    var entity = entities.get(i);
+                    entity.setId(firstId + i);
+                    return template.insert(entity);
+                })
+                .as(transactionalOperator::transactional))
+            .doOnComplete(() -> LOG.debug("createReviews: created {} review entities", entities.size()))
+            .onErrorMap(
+                DataIntegrityViolationException.class,
+                ex -> new InvalidInputException("Duplicate key in a batch of " + body.size() + " reviews")
+            )
+            .map(mapper::reactiveEntityToApi);
+    }
+
+    /**
+     * @return the first of count consecutive ids
+     */
+    private Mono<Integer> nextIds(int count) {
+        return databaseClient.inConnection(connection ->
+            Mono.from(connection.createStatement(INCREMENT_SEQUENCE).bind(0, count).execute())
+                .flatMap(result -> Mono.from(result.getRowsUpdated()))
+                .then(Mono.from(connection.createStatement(SELECT_SEQUENCE).execute()))
+                .flatMap(result -> Mono.from(result.map((row, metadata) -> row.get(0, Long.class))))
+                .map(nextVal -> (int)(nextVal - count))
+        );
+    }
+
+    @Override
+    public Flux<Review> getReviews(HttpHeaders headers, int productId) {
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+        LOG.info("Will get review for product with id={}", productId);
+
+        return setServiceAddress(repository.findByProductId(productId))
+            .log(LOG.getName(), FINE);
+    }
+
+    @Override
+    public Flux<Review> getReviews(HttpHeaders headers, int productId, int limit, int afterId) {
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+        if (limit < 1 || limit > maxPageSize) {
+            throw new InvalidInputException("Invalid limit: " + limit);
+        }
+        LOG.info("Will get {} reviews after id={} for product with id={}", limit, afterId, productId);
+
+        var page = PageRequest.of(0, limit);
+        return setServiceAddress(repository.findByProductIdAndReviewIdGreaterThanOrderByReviewId(productId, afterId, page))
+            .log(LOG.getName(), FINE);
+    }
+
+    @Override
+    public Flux<Review> getReviews(HttpHeaders headers, List<Integer> productIds) {
+        productIds.stream().filter(id -> id < 1).findFirst().ifPresent(id -> {
+            throw new InvalidInputException("Invalid productId: " + id);
+        });
+        LOG.info("Will get reviews for {} products", productIds.size());
+
+        return setServiceAddress(repository.findByProductIdInOrderByProductId(productIds))
+            .log(LOG.getName(), FINE);
+    }
+
+    @Override
+    public Flux<Review> getReviews(HttpHeaders headers, List<Integer> productIds, int limit) {
+        productIds.stream().filter(id -> id < 1).findFirst().ifPresent(id -> {
+            throw new InvalidInputException("Invalid productId: " + id);
+        });
+        if (limit < 1 || limit > maxPageSize) {
+            throw new InvalidInputException("Invalid limit: " + limit);
+        }
+        LOG.info("Will get {} reviews each for {} products", limit, productIds.size());
+
+        // One indexed page query per product, so no more than limit reviews of a product are read
+        var page = PageRequest.of(0, limit);
+        var entities = Flux.fromIterable(productIds)
+            .concatMap(productId -> repository.findByProductIdAndReviewIdGreaterThanOrderByReviewId(productId, 0, page));
+        return setServiceAddress(entities)
+            .log(LOG.getName(), FINE);
+    }
+
+    private Flux<Review> setServiceAddress(Flux<ReactiveReviewEntity> entities) {
+        var address = serviceUtil.getServiceAddress();
+        return entities
+            .map(mapper::reactiveEntityToApi)
+            .doOnNext(e -> e.setServiceAddress(address));
+    }
+
+    @Override
+    public Mono<Void> deleteReviews(int productId) {
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+        LOG.debug("deleteReviews: tries to delete reviews for the product with productId: {}", productId);
+        return repository.deleteByProductId(productId)
+            .doOnNext(count -> LOG.debug("deleteReviews: deleted {} reviews for the product with productId: {}", count, productId))
+            .then();
+    }
+}
@@ -0,0 +1,18 @@
+package com.yoichitgy.microservices.core.review.services;
+
+import com.yoichitgy.api.core.review.Review;
+import com.yoichitgy.api.core.review.ReviewService;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * The review service with the operations that only the message processors use, not part of the API.
+ */
+public interface ReviewEventService extends ReviewService {
+    /**
+     * Creates the review unless one with the same productId and reviewId exists, used for redelivered CREATE events.
+     *
+     * @return the created review, or empty if it already existed
+     */
+    Mono<Review> createReviewIfAbsent(Review body);
+}
@@ -3,6 +3,7 @@ package com.yoichitgy.microservices.core.review.services;
 import java.util.List;
 
 import com.yoichitgy.api.core.review.Review;
+import com.yoichitgy.microservices.core.review.persistence.ReactiveReviewEntity;
 import com.yoichitgy.microservices.core.review.persistence.ReviewEntity;
 
 import org.mapstruct.Mapper;
@@ -19,4 +20,11 @@ public interface ReviewMapper {
 
     List<Review> entityListToApiList(List<ReviewEntity> entities);
     List<ReviewEntity> apiListToEntityList(List<Review> api);
+
+    @Mapping(target = "serviceAddress", ignore = true)
+    Review reactiveEntityToApi(ReactiveReviewEntity entity);
+
+    @Mapping(target = "id", ignore = true)
+    @Mapping(target = "version", ignore = true)
+    ReactiveReviewEntity apiToReactiveEntity(Review api);
   }
@@ -8,40 +8,50 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.yoichitgy.api.core.review.Review;
-import com.yoichitgy.api.core.review.ReviewService;
 import com.yoichitgy.api.exceptions.InvalidInputException;
 import com.yoichitgy.microservices.core.review.persistence.ReviewRepository;
+import com.yoichitgy.util.http.Deadline;
 import com.yoichitgy.util.http.ServiceUtil;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
 
+/**
+ * Blocking JPA persistence, run in the jdbcScheduler. Replaced by {@link ReactiveReviewServiceImpl} in the r2dbc profile.
+ */
 @RestController
-public class ReviewServiceImpl implements ReviewService {
+@Profile("!r2dbc")
+public class ReviewServiceImpl implements ReviewEventService {
     private static final Logger LOG = LoggerFactory.getLogger(ReviewServiceImpl.class);
 
     private final Scheduler jdbcScheduler;
     private final ReviewRepository repository;
     private final ReviewMapper mapper;
     private final ServiceUtil serviceUtil;
+    private final int maxPageSize;
 
     @Autowired
     public ReviewServiceImpl(
         @Qualifier("jdbcScheduler") Scheduler jdbcScheduler,
         ReviewRepository repository,
         ReviewMapper mapper,
-        ServiceUtil serviceUtil
+        ServiceUtil serviceUtil,
+        @Value("${app.maxPageSize:1000}") int maxPageSize
     ) {
         this.jdbcScheduler = jdbcScheduler;
         this.repository = repository;
         this.mapper = mapper;
         this.serviceUtil = serviceUtil;
+        this.maxPageSize = maxPageSize;
     }
 
     @Override
@@ -71,6 +81,59 @@ public class ReviewServiceImpl implements ReviewService {
         }
     }
 
+    @Override
+    public Mono<Review> createReviewIfAbsent(Review body) {
+        int productId = body.getProductId();
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+        // Empty if the review already exists
+        return Mono.fromCallable(() -> _createReviewIfAbsent(body))
+            .subscribeOn(jdbcScheduler);
+    }
+
+    private Review _createReviewIfAbsent(Review body) {
+        // Looked up by the unique (productId, reviewId) index, so a duplicate costs no failed insert
+        if (repository.existsByProductIdAndReviewId(body.getProductId(), body.getReviewId())) {
+            LOG.debug("createReviewIfAbsent: review {}/{} already exists", body.getProductId(), body.getReviewId());
+            return null;
+        }
+        try {
+            var newEntity = repository.save(mapper.apiToEntity(body));
+
+            LOG.debug("createReviewIfAbsent: created a review entity: {}/{}", body.getProductId(), body.getReviewId());
+            return mapper.entityToApi(newEntity);
+        } catch (DataIntegrityViolationException ex) {
+            if (!DuplicateKeys.isDuplicateKey(ex)) {
+                throw ex;
+            }
+            LOG.debug("createReviewIfAbsent: review {}/{} was created concurrently", body.getProductId(), body.getReviewId());
+            return null;
+        }
+    }
+
+    @Override
+    public Flux<Review> createReviews(List<Review> body) {
+        body.stream().filter(r -> r.getProductId() < 1).findFirst().ifPresent(r -> {
+            throw new InvalidInputException("Invalid productId: " + r.getProductId());
+        });
+        return Mono.fromCallable(() -> _createReviews(body))
+            .flatMapMany(Flux::fromIterable)
+            .subscribeOn(jdbcScheduler);
+    }
+
+    private List<Review> _createReviews(List<Review> body) {
+        try {
+            // Saved in one transaction, the inserts are sent in JDBC batches of hibernate.jdbc.batch_size
+            var entities = repository.saveAll(mapper.apiListToEntityList(body));
+
+            LOG.debug("createReviews: created {} review entities", entities.size());
+            return mapper.entityListToApiList(entities);
+        } catch (DataIntegrityViolationException ex) {
+            throw new InvalidInputException("Duplicate key in a batch of " + body.size() + " reviews");
+        }
+    }
+
     @Override
     public Flux<Review> getReviews(HttpHeaders headers, int productId) {
         if (productId < 1) {
@@ -78,7 +141,8 @@ public class ReviewServiceImpl implements ReviewService {
         }
         LOG.info("Will get review for product with id={}", productId);
        
-        return Mono.fromCallable(() -> _getReviews(productId))
+        // Skipped if the request deadline passes while waiting for a thread in the jdbcScheduler
+        return Deadline.fromCallable(() -> _getReviews(productId))
             .flatMapMany(Flux::fromIterable)
             .log(LOG.getName(), FINE)
             .subscribeOn(jdbcScheduler);
@@ -94,6 +158,87 @@ public class ReviewServiceImpl implements ReviewService {
         return response;
     }
 
+    @Override
+    public Flux<Review> getReviews(HttpHeaders headers, int productId, int limit, int afterId) {
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+        if (limit < 1 || limit > maxPageSize) {
+            throw new InvalidInputException("Invalid limit: " + limit);
+        }
+        LOG.info("Will get {} reviews after id={} for product with id={}", limit, afterId, productId);
+
+        return Deadline.fromCallable(() -> _getReviews(productId, limit, afterId))
+            .flatMapMany(Flux::fromIterable)
+            .log(LOG.getName(), FINE)
+            .subscribeOn(jdbcScheduler);
+    }
+
+    private List<Review> _getReviews(int productId, int limit, int afterId) {
+        // Uses the unique (productId, reviewId) index, so no reviews before afterId are read
+        var page = PageRequest.of(0, limit);
+        var entities = repository.findByProductIdAndReviewIdGreaterThanOrderByReviewId(productId, afterId, page);
+        var response = mapper.entityListToApiList(entities);
+        var address = serviceUtil.getServiceAddress();
+        response.forEach(e -> e.setServiceAddress(address));
+
+        LOG.debug("Response size: {}", response.size());
+        return response;
+    }
+
+    @Override
+    public Flux<Review> getReviews(HttpHeaders headers, List<Integer> productIds) {
+        productIds.stream().filter(id -> id < 1).findFirst().ifPresent(id -> {
+            throw new InvalidInputException("Invalid productId: " + id);
+        });
+        LOG.info("Will get reviews for {} products", productIds.size());
+
+        return Deadline.fromCallable(() -> _getReviews(productIds))
+            .flatMapMany(Flux::fromIterable)
+            .log(LOG.getName(), FINE)
+            .subscribeOn(jdbcScheduler);
+    }
+
+    private List<Review> _getReviews(List<Integer> productIds) {
+        var entities = repository.findByProductIdInOrderByProductId(productIds);
+        var response = mapper.entityListToApiList(entities);
+        var address = serviceUtil.getServiceAddress();
+        response.forEach(e -> e.setServiceAddress(address));
+
+        LOG.debug("Response size: {}", response.size());
+        return response;
+    }
+
+    @Override
+    public Flux<Review> getReviews(HttpHeaders headers, List<Integer> productIds, int limit) {
+        productIds.stream().filter(id -> id < 1).findFirst().ifPresent(id -> {
+            throw new InvalidInputException("Invalid productId: " + id);
+        });
+        if (limit < 1 || limit > maxPageSize) {
+            throw new InvalidInputException("Invalid limit: " + limit);
+        }
+        LOG.info("Will get {} reviews each for {} products", limit, productIds.size());
+
+        return Deadline.fromCallable(() -> _getReviews(productIds, limit))
+            .flatMapMany(Flux::fromIterable)
+            .log(LOG.getName(), FINE)
+            .subscribeOn(jdbcScheduler);
+    }
+
+    private List<Review> _getReviews(List<Integer> productIds, int limit) {
+        // One indexed page query per product, so no more than limit reviews of a product are read
+        var page = PageRequest.of(0, limit);
+        var entities = productIds.stream()
+            .flatMap(productId -> repository.findByProductIdAndReviewIdGreaterThanOrderByReviewId(productId, 0, page).stream())
+            .toList();
+        var response = mapper.entityListToApiList(entities);
+        var address = serviceUtil.getServiceAddress();
+        response.forEach(e -> e.setServiceAddress(address));
+
+        LOG.debug("Response size: {}", response.size());
+        return response;
+    }
+
     @Override
     public Mono<Void>deleteReviews(int productId) {
         if (productId < 1) {
@@ -106,6 +251,7 @@ public class ReviewServiceImpl implements ReviewService {
 
     private void _deleteReviews(int productId) {
         LOG.debug("deleteReviews: tries to delete reviews for the product with productId: {}", productId);
-        repository.deleteAll(repository.findByProductId(productId));
+        var count = repository.deleteByProductId(productId);
+        LOG.debug("deleteReviews: deleted {} reviews for the product with productId: {}", count, productId);
     }
 }
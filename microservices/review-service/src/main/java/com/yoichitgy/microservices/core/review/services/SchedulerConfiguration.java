@@ -1,34 +1,50 @@
 package com.yoichitgy.microservices.core.review.services;
 
+import com.yoichitgy.util.reactor.BlockingScheduler;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import reactor.core.scheduler.Scheduler;
-import reactor.core.scheduler.Schedulers;
 
 @Configuration
 public class SchedulerConfiguration {
     private static final Logger LOG = LoggerFactory.getLogger(SchedulerConfiguration.class);
 
+    private final BlockingScheduler.Mode mode;
     private final Integer threadPoolSize;
     private final Integer taskQueueSize;
+    private final Integer maxConcurrency;
+    private final MeterRegistry meterRegistry;
 
     @Autowired
     public SchedulerConfiguration(
+        @Value("${app.scheduler.mode:bounded-elastic}") BlockingScheduler.Mode mode,
         @Value("${app.threadPoolSize:10}") Integer threadPoolSize,
-        @Value("${app.taskQueueSize:100}") Integer taskQueueSize
+        @Value("${app.taskQueueSize:100}") Integer taskQueueSize,
+        // More concurrent JDBC calls would only wait for a connection in the Hikari pool
+        @Value("${app.scheduler.maxConcurrency:${spring.datasource.hikari.maximum-pool-size:10}}") Integer maxConcurrency,
+        MeterRegistry meterRegistry
     ) {
+        this.mode = mode;
         this.threadPoolSize = threadPoolSize;
         this.taskQueueSize = taskQueueSize;
+        this.maxConcurrency = maxConcurrency;
+        this.meterRegistry = meterRegistry;
     }
 
+    // Only JPA calls block, the r2dbc profile needs no jdbcScheduler
     @Bean
+    @Profile("!r2dbc")
     public Scheduler jdbcScheduler() {
-        LOG.info("Creates a jdbcScheduler with thread pool size = {}", threadPoolSize);
-        return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "jdbc-pool");
+        LOG.info("Creates a jdbcScheduler in mode {} with thread pool size = {}, max concurrency = {}",
+            mode, threadPoolSize, maxConcurrency);
+        return BlockingScheduler.create(mode, "jdbc-pool", threadPoolSize, taskQueueSize, maxConcurrency, meterRegistry);
     }
 }
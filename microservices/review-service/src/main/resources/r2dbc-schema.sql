@@ -0,0 +1,19 @@
+-- The schema Hibernate creates for ReviewEntity, used by the r2dbc profile where Hibernate does not run
+CREATE TABLE IF NOT EXISTS hibernate_sequence (
+    next_val BIGINT
+) ENGINE=InnoDB;
+
+INSERT INTO hibernate_sequence (next_val)
+    SELECT 1 FROM DUAL WHERE NOT EXISTS (SELECT * FROM hibernate_sequence);
+
+CREATE TABLE IF NOT EXISTS reviews (
+    id INTEGER NOT NULL,
+    version INTEGER NOT NULL,
+    product_id INTEGER NOT NULL,
+    review_id INTEGER NOT NULL,
+    author VARCHAR(255),
+    subject VARCHAR(255),
+    content VARCHAR(255),
+    PRIMARY KEY (id),
+    UNIQUE INDEX reviews_unique_idx (product_id, review_id)
+) ENGINE=InnoDB;
@@ -16,5 +16,13 @@ public abstract class ContainerTestBase {
         registry.add("spring.datasource.url", database::getJdbcUrl);
         registry.add("spring.datasource.username", database::getUsername);
         registry.add("spring.datasource.password", database::getPassword);
+        registry.add("spring.r2dbc.url", () -> String.format(
+            "r2dbc:mysql://%s:%d/%s",
+            database.getHost(),
+            database.getMappedPort(MySQLContainer.MYSQL_PORT),
+            database.getDatabaseName()
+        ));
+        registry.add("spring.r2dbc.username", database::getUsername);
+        registry.add("spring.r2dbc.password", database::getPassword);
     }
 }
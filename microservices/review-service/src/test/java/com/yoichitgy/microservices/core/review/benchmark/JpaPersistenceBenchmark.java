@@ -0,0 +1,4 @@
+package com.yoichitgy.microservices.core.review.benchmark;
+
+class JpaPersistenceBenchmark extends PersistenceBenchmarkBase {
+}
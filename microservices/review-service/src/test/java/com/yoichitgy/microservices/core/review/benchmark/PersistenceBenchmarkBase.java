@@ -0,0 +1,112 @@
+package com.yoichitgy.microservices.core.review.benchmark;
+
+import java.time.Duration;
+import java.util.stream.IntStream;
+import java.util.function.IntFunction;
+
+import com.yoichitgy.api.core.review.Review;
+import com.yoichitgy.api.core.review.ReviewService;
+import com.yoichitgy.microservices.core.review.ContainerTestBase;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Compares the throughput of the persistence modes against the MySQL test container,
+ * run with: ./gradlew :microservices:review-service:test -Pbenchmark --tests '*PersistenceBenchmark'
+ *
+ * The concurrency stays within the threadPoolSize + taskQueueSize of the jdbcScheduler,
+ * more concurrent calls are rejected in the JPA mode.
+ */
+@SpringBootTest(
+    webEnvironment = WebEnvironment.NONE,
+    properties = {
+        "spring.cloud.stream.defaultBinder=rabbit",
+        "logging.level.com.yoichitgy=INFO",
+        "logging.level.org.hibernate.SQL=INFO",
+        "logging.level.org.hibernate.type.descriptor.sql.BasicBinder=INFO",
+        "spring.jpa.hibernate.ddl-auto=update"
+    }
+)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+abstract class PersistenceBenchmarkBase extends ContainerTestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(PersistenceBenchmarkBase.class);
+
+    private static final int PRODUCTS = 100;
+    private static final int REVIEWS_PER_PRODUCT = 5;
+    private static final int WARMUP_CALLS = 2_000;
+    private static final int CALLS = 20_000;
+    private static final int CONCURRENCY = 100;
+    private static final int BULK_SIZE = 500;
+
+    @Autowired
+    private ReviewService reviewService;
+
+    @BeforeEach
+    void setupDb() {
+        deleteAll();
+        Flux.range(1, PRODUCTS)
+            .concatMap(productId -> Flux.range(1, REVIEWS_PER_PRODUCT)
+                .concatMap(reviewId -> reviewService.createReview(review(productId, reviewId))))
+            .blockLast();
+    }
+
+    @Test
+    void reads() {
+        run("reads", CALLS, i -> reviewService.getReviews(null, 1 + i % PRODUCTS).then());
+    }
+
+    @Test
+    void pagedReads() {
+        run("paged reads", CALLS, i -> reviewService.getReviews(null, 1 + i % PRODUCTS, 2, i % REVIEWS_PER_PRODUCT).then());
+    }
+
+    @Test
+    void writes() {
+        // Every call creates a new review for one of the seeded products
+        int calls = CALLS / 4;
+        run("writes", calls, i -> reviewService.createReview(review(1 + i % PRODUCTS, REVIEWS_PER_PRODUCT + 1 + i)).then());
+        deleteAll();
+    }
+
+    @Test
+    void bulkWrites() {
+        // Every call creates BULK_SIZE new reviews for one of the seeded products
+        int calls = CALLS / BULK_SIZE;
+        run("bulk writes of " + BULK_SIZE, calls, i -> reviewService.createReviews(
+            IntStream.range(0, BULK_SIZE)
+                .mapToObj(j -> review(1 + i % PRODUCTS, REVIEWS_PER_PRODUCT + 1 + i * BULK_SIZE + j))
+                .toList()
+        ).then());
+        deleteAll();
+    }
+
+    private void run(String name, int calls, IntFunction<Mono<Void>> call) {
+        // The warmup calls follow the measured ones, so warmup writes do not collide with them
+        Flux.range(calls, Math.min(WARMUP_CALLS, calls)).flatMap(call::apply, CONCURRENCY).blockLast();
+
+        var start = System.nanoTime();
+        Flux.range(0, calls).flatMap(call::apply, CONCURRENCY).blockLast();
+        var elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        LOG.info("{} {}: {} calls with concurrency {} in {} ms, {} calls/s",
+            getClass().getSimpleName(), name, calls, CONCURRENCY, elapsed.toMillis(), calls * 1_000_000_000L / elapsed.toNanos());
+    }
+
+    private void deleteAll() {
+        Flux.range(1, PRODUCTS).concatMap(reviewService::deleteReviews).blockLast();
+    }
+
+    private Review review(int productId, int reviewId) {
+        return new Review(productId, reviewId, "Author " + reviewId, "Subject " + reviewId, "Content " + reviewId, null);
+    }
+}
@@ -0,0 +1,7 @@
+package com.yoichitgy.microservices.core.review.benchmark;
+
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles("r2dbc")
+class R2dbcPersistenceBenchmark extends PersistenceBenchmarkBase {
+}
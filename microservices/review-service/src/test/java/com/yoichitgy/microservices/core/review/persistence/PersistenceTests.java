@@ -4,6 +4,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.util.List;
+
 import com.yoichitgy.microservices.core.review.ContainerTestBase;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -13,6 +15,7 @@ import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabas
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -61,6 +64,18 @@ class PersistenceTests extends ContainerTestBase {
         assertFalse(repository.existsById(savedEntity.getId()));
     }
   
+    @Test
+    void deleteByProductId() {
+        repository.save(new ReviewEntity(1, 3, "a", "s", "c"));
+        repository.save(new ReviewEntity(2, 1, "a", "s", "c"));
+
+        assertEquals(2, repository.deleteByProductId(1));
+        assertEquals(0, repository.findByProductId(1).size());
+        assertEquals(1, repository.findByProductId(2).size());
+
+        assertEquals(0, repository.deleteByProductId(1));
+    }
+
     @Test
     void getByProductId() {
         var entityList = repository.findByProductId(savedEntity.getProductId());
@@ -69,6 +84,31 @@ class PersistenceTests extends ContainerTestBase {
         assertEquals(savedEntity, entityList.get(0));
     }
   
+    @Test
+    void getByProductIds() {
+        repository.save(new ReviewEntity(2, 1, "a", "s", "c"));
+        repository.save(new ReviewEntity(3, 1, "a", "s", "c"));
+
+        var entityList = repository.findByProductIdInOrderByProductId(List.of(1, 2));
+
+        assertEquals(2, entityList.size());
+        assertEquals(savedEntity, entityList.get(0));
+        assertEquals(2, entityList.get(1).getProductId());
+    }
+
+    @Test
+    void getPageByProductId() {
+        repository.save(new ReviewEntity(1, 4, "a", "s", "c"));
+        repository.save(new ReviewEntity(1, 3, "a", "s", "c"));
+        repository.save(new ReviewEntity(1, 5, "a", "s", "c"));
+
+        var entityList = repository.findByProductIdAndReviewIdGreaterThanOrderByReviewId(1, 2, PageRequest.of(0, 2));
+
+        assertEquals(2, entityList.size());
+        assertEquals(3, entityList.get(0).getReviewId());
+        assertEquals(4, entityList.get(1).getReviewId());
+    }
+
     @Test
     void duplicateError() {
         assertThrows(DataIntegrityViolationException.class, () -> {
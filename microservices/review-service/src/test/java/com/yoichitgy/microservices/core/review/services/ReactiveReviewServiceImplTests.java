@@ -0,0 +1,175 @@
+package com.yoichitgy.microservices.core.review.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.yoichitgy.api.core.review.Review;
+import com.yoichitgy.api.event.Event;
+import com.yoichitgy.api.event.Event.Type;
+import com.yoichitgy.api.exceptions.InvalidInputException;
+import com.yoichitgy.microservices.core.review.ContainerTestBase;
+import com.yoichitgy.microservices.core.review.persistence.ReactiveReviewRepository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+@SpringBootTest(
+    webEnvironment = WebEnvironment.RANDOM_PORT,
+    properties = {
+        "spring.cloud.stream.defaultBinder=rabbit",
+        "logging.level.com.yoichitgy=DEBUG"
+    }
+)
+@ActiveProfiles("r2dbc")
+class ReactiveReviewServiceImplTests extends ContainerTestBase {
+    @Autowired
+    private WebTestClient client;
+    @Autowired
+    private ReactiveReviewRepository repository;
+    @Autowired
+    private ReviewEventService reviewService;
+    @Autowired
+    @Qualifier("messageProcessor")
+    private Consumer<Event<Integer, Review>> messageProcessor;
+
+    @BeforeEach
+    void setupDb() {
+        repository.deleteAll().block();
+    }
+
+    @Test
+    void getReviewsByProductId() {
+        int productId = 1;
+        sendCreateReviewEvent(productId, 1);
+        sendCreateReviewEvent(productId, 2);
+        sendCreateReviewEvent(productId, 3);
+        assertEquals(3, repository.findByProductId(productId).count().block());
+
+        getAndVerifyReviews("?productId=" + productId, HttpStatus.OK)
+            .jsonPath("$.length()").isEqualTo(3)
+            .jsonPath("$[2].productId").isEqualTo(productId)
+            .jsonPath("$[2].reviewId").isEqualTo(3)
+            .jsonPath("$[2].serviceAddress").isNotEmpty();
+    }
+
+    @Test
+    void getReviewsPage() {
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(1, 2);
+        sendCreateReviewEvent(1, 3);
+
+        getAndVerifyReviews("?productId=1&limit=1&afterId=1", HttpStatus.OK)
+            .jsonPath("$.length()").isEqualTo(1)
+            .jsonPath("$[0].reviewId").isEqualTo(2);
+    }
+
+    @Test
+    void getReviewsByProductIds() {
+        sendCreateReviewEvent(2, 1);
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(3, 1);
+
+        getAndVerifyReviews("?productIds=1,2", HttpStatus.OK)
+            .jsonPath("$.length()").isEqualTo(2)
+            .jsonPath("$[0].productId").isEqualTo(1)
+            .jsonPath("$[1].productId").isEqualTo(2);
+    }
+
+    @Test
+    void duplicateError() {
+        sendCreateReviewEvent(1, 1);
+
+        var thrown = assertThrows(
+            InvalidInputException.class,
+            () -> reviewService.createReview(review(1, 1)).block(),
+            "Expected a InvalidInputException here!"
+        );
+        assertEquals("Duplicate key, productId: 1, reviewId: 1", thrown.getMessage());
+        assertEquals(1, repository.count().block());
+    }
+
+    @Test
+    void duplicateCreateEventIgnored() {
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(1, 1);
+
+        assertEquals(1, repository.count().block());
+        assertNull(reviewService.createReviewIfAbsent(review(1, 1)).block());
+    }
+
+    @Test
+    void createReviews() {
+        var created = reviewService.createReviews(List.of(review(1, 1), review(1, 2), review(2, 1))).collectList().block();
+
+        assertEquals(3, created.size());
+        assertEquals(2, repository.findByProductId(1).count().block());
+    }
+
+    @Test
+    void createReviewsDuplicateError() {
+        sendCreateReviewEvent(1, 2);
+
+        var thrown = assertThrows(
+            InvalidInputException.class,
+            () -> reviewService.createReviews(List.of(review(1, 1), review(1, 2))).blockLast(),
+            "Expected a InvalidInputException here!"
+        );
+        assertEquals("Duplicate key in a batch of 2 reviews", thrown.getMessage());
+        assertEquals(1, repository.count().block());
+    }
+
+    @Test
+    void deleteReviews() {
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(2, 1);
+
+        sendDeleteReviewEvent(1);
+        assertEquals(0, repository.findByProductId(1).count().block());
+        assertEquals(1, repository.findByProductId(2).count().block());
+
+        sendDeleteReviewEvent(1);
+    }
+
+    private WebTestClient.BodyContentSpec getAndVerifyReviews(String query, HttpStatus expectedStatus) {
+        return client.get()
+            .uri("/review" + query)
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isEqualTo(expectedStatus)
+            .expectHeader().contentType(MediaType.APPLICATION_JSON)
+            .expectBody();
+    }
+
+    private void sendCreateReviewEvent(int productId, int reviewId) {
+        var event = new Event<Integer, Review>(Type.CREATE, productId, review(productId, reviewId));
+        messageProcessor.accept(event);
+    }
+
+    private Review review(int productId, int reviewId) {
+        return new Review(
+            productId,
+            reviewId,
+            "Author " + reviewId,
+            "Subject " + reviewId,
+            "Content " + reviewId,
+            "SA"
+        );
+    }
+
+    private void sendDeleteReviewEvent(int productId) {
+        var event = new Event<Integer, Review>(Type.DELETE, productId, null);
+        messageProcessor.accept(event);
+    }
+}
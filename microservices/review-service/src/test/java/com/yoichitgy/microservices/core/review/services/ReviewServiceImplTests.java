@@ -1,9 +1,12 @@
 package com.yoichitgy.microservices.core.review.services;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import com.yoichitgy.api.core.review.Review;
 import com.yoichitgy.api.event.Event;
@@ -11,6 +14,7 @@ import com.yoichitgy.api.event.Event.Type;
 import com.yoichitgy.api.exceptions.InvalidInputException;
 import com.yoichitgy.microservices.core.review.ContainerTestBase;
 import com.yoichitgy.microservices.core.review.persistence.ReviewRepository;
+import com.yoichitgy.util.http.Deadline;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -22,12 +26,16 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
 @SpringBootTest(
     webEnvironment = WebEnvironment.RANDOM_PORT,
     properties = {
         "spring.cloud.stream.defaultBinder=rabbit",
         "logging.level.com.yoichitgy=DEBUG",
-        "spring.jpa.hibernate.ddl-auto=update"
+        "spring.jpa.hibernate.ddl-auto=update",
+        "spring.jpa.properties.hibernate.jdbc.batch_size=50"
     }
 )
 class ReviewServiceImplTests extends ContainerTestBase {
@@ -36,8 +44,13 @@ class ReviewServiceImplTests extends ContainerTestBase {
     @Autowired
     private ReviewRepository repository;
     @Autowired
+    private ReviewEventService reviewService;
+    @Autowired
     @Qualifier("messageProcessor")
     private Consumer<Event<Integer, Review>> messageProcessor;
+    @Autowired
+    @Qualifier("messageBatchProcessor")
+    private Function<Flux<Event<Integer, Review>>, Mono<Void>> messageBatchProcessor;
   
     @BeforeEach
     void setupDb() {
@@ -58,6 +71,58 @@ class ReviewServiceImplTests extends ContainerTestBase {
             .jsonPath("$[2].reviewId").isEqualTo(3);
     }
 
+    @Test
+    void getReviewsByProductIds() {
+        sendCreateReviewEvent(2, 1);
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(1, 2);
+        sendCreateReviewEvent(3, 1);
+
+        getAndVerifyReviewsByProductId("?productIds=1,2", HttpStatus.OK)
+            .jsonPath("$.length()").isEqualTo(3)
+            .jsonPath("$[0].productId").isEqualTo(1)
+            .jsonPath("$[1].productId").isEqualTo(1)
+            .jsonPath("$[2].productId").isEqualTo(2);
+    }
+
+    @Test
+    void getReviewsPageByProductIds() {
+        sendCreateReviewEvent(2, 1);
+        sendCreateReviewEvent(1, 2);
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(1, 3);
+
+        getAndVerifyReviewsByProductId("?productIds=1,2&limit=2", HttpStatus.OK)
+            .jsonPath("$.length()").isEqualTo(3)
+            .jsonPath("$[0].reviewId").isEqualTo(1)
+            .jsonPath("$[1].reviewId").isEqualTo(2)
+            .jsonPath("$[2].productId").isEqualTo(2);
+    }
+
+    @Test
+    void getReviewsPage() {
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(1, 2);
+        sendCreateReviewEvent(1, 3);
+
+        getAndVerifyReviewsByProductId("?productId=1&limit=1&afterId=1", HttpStatus.OK)
+            .jsonPath("$.length()").isEqualTo(1)
+            .jsonPath("$[0].reviewId").isEqualTo(2);
+    }
+
+    @Test
+    void getReviewsPageInvalidLimit() {
+        getAndVerifyReviewsByProductId("?productId=1&limit=0", HttpStatus.UNPROCESSABLE_ENTITY)
+            .jsonPath("$.message").isEqualTo("Invalid limit: 0");
+    }
+
+    @Test
+    void getReviewsPageTooLarge() {
+        // A page is capped at app.maxPageSize, 1000 by default
+        getAndVerifyReviewsByProductId("?productId=1&limit=1001", HttpStatus.UNPROCESSABLE_ENTITY)
+            .jsonPath("$.message").isEqualTo("Invalid limit: 1001");
+    }
+
     @Test
     void duplicateError() {
         int productId = 1;
@@ -68,14 +133,79 @@ class ReviewServiceImplTests extends ContainerTestBase {
 
         var thrown = assertThrows(
             InvalidInputException.class,
-            () -> sendCreateReviewEvent(productId, reviewId),
+            () -> reviewService.createReview(review(productId, reviewId)).block(),
             "Expected a InvalidInputException here!"
         );
         assertEquals("Duplicate key, productId: 1, reviewId: 1", thrown.getMessage());
           
         assertEquals(1, repository.count());
     }
+
+    @Test
+    void duplicateCreateEventIgnored() {
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(1, 1);
+
+        assertEquals(1, repository.count());
+        assertNull(reviewService.createReviewIfAbsent(review(1, 1)).block());
+    }
   
+    @Test
+    void createBatchEvent() {
+        var event = Event.batch(1, List.of(review(1, 1), review(1, 2), review(1, 3)));
+        messageProcessor.accept(event);
+        assertEquals(3, repository.findByProductId(1).size());
+
+        // A redelivered batch creates nothing and does not fail
+        messageProcessor.accept(event);
+        assertEquals(3, repository.count());
+    }
+
+    @Test
+    void createReviews() {
+        var created = reviewService.createReviews(List.of(review(1, 1), review(1, 2), review(2, 1))).collectList().block();
+
+        assertEquals(3, created.size());
+        assertEquals(2, repository.findByProductId(1).size());
+        assertEquals(1, repository.findByProductId(2).size());
+    }
+
+    @Test
+    void createReviewsDuplicateError() {
+        sendCreateReviewEvent(1, 2);
+
+        var thrown = assertThrows(
+            InvalidInputException.class,
+            () -> reviewService.createReviews(List.of(review(1, 1), review(1, 2))).blockLast(),
+            "Expected a InvalidInputException here!"
+        );
+        assertEquals("Duplicate key in a batch of 2 reviews", thrown.getMessage());
+
+        // None of the batch is created
+        assertEquals(1, repository.count());
+    }
+
+    @Test
+    void processEventBatch() {
+        sendCreateReviewEvent(2, 1);
+
+        var events = Flux.just(
+            new Event<Integer, Review>(Type.CREATE, 1, review(1, 1)),
+            new Event<Integer, Review>(Type.CREATE, 1, review(1, 2)),
+            new Event<Integer, Review>(Type.DELETE, 2, null),
+            new Event<Integer, Review>(Type.DELETE, 1, null),
+            new Event<Integer, Review>(Type.CREATE, 1, review(1, 3)),
+            new Event<Integer, Review>(Type.CREATE, 3, review(3, 1))
+        );
+        messageBatchProcessor.apply(events).block();
+
+        var reviews = repository.findByProductId(1);
+        assertEquals(1, reviews.size());
+        assertEquals(3, reviews.get(0).getReviewId());
+        assertEquals(0, repository.findByProductId(2).size());
+        assertEquals(1, repository.findByProductId(3).size());
+    }
+
     @Test
     void deleteReviews() {
         int productId = 1;
@@ -111,6 +241,31 @@ class ReviewServiceImplTests extends ContainerTestBase {
             .jsonPath("$.length()").isEqualTo(0);
     }
   
+    @Test
+    void getReviewsWithDeadline() {
+        int productId = 1;
+        sendCreateReviewEvent(productId, 1);
+
+        client.get()
+            .uri("/review?productId=" + productId)
+            .header(Deadline.HEADER, "5000")
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.length()").isEqualTo(1);
+    }
+
+    @Test
+    void getReviewsDeadlineExceeded() {
+        client.get()
+            .uri("/review?productId=1")
+            .header(Deadline.HEADER, "0")
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isEqualTo(HttpStatus.GATEWAY_TIMEOUT);
+    }
+
     @Test
     void getReviewsInvalidParameterNegativeValue() {  
         int productIdInvalid = -1;
@@ -119,6 +274,13 @@ class ReviewServiceImplTests extends ContainerTestBase {
             .jsonPath("$.message").isEqualTo("Invalid productId: " + productIdInvalid);      
     }    
 
+    @Test
+    void getReviewsByProductIdsInvalidParameterNegativeValue() {
+        getAndVerifyReviewsByProductId("?productIds=1,-1", HttpStatus.UNPROCESSABLE_ENTITY)
+            .jsonPath("$.path").isEqualTo("/review")
+            .jsonPath("$.message").isEqualTo("Invalid productId: -1");
+    }
+
     private WebTestClient.BodyContentSpec getAndVerifyReviewsByProductId(int productId, HttpStatus expectedStatus) {
         return getAndVerifyReviewsByProductId("?productId=" + productId, expectedStatus);
     }
@@ -134,7 +296,12 @@ class ReviewServiceImplTests extends ContainerTestBase {
     }
 
     private void sendCreateReviewEvent(int productId, int reviewId) {
-        var review = new Review(
+        var event = new Event<Integer, Review>(Type.CREATE, productId, review(productId, reviewId));
+        messageProcessor.accept(event);
+      }
+
+    private Review review(int productId, int reviewId) {
+        return new Review(
             productId,
             reviewId,
             "Author " + reviewId,
@@ -142,9 +309,7 @@ class ReviewServiceImplTests extends ContainerTestBase {
             "Content " + reviewId,
             "SA"
         );
-        var event = new Event<Integer, Review>(Type.CREATE, productId, review);
-        messageProcessor.accept(event);
-      }
+    }
     
     private void sendDeleteReviewEvent(int productId) {
         var event = new Event<Integer, Review>(Type.DELETE, productId, null);
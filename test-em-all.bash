@@ -186,12 +186,12 @@ function testCircuitBreaker() {
     assertEqual "CLOSED" "$($EXEC curl -s http://localhost:${MGM_PORT}/actuator/health | jq -r .components.circuitBreakers.details.product.details.state)"
 
     # Open the circuit breaker by running three slow calls in a row, i.e. that cause a timeout exception
-    # Also, verify that we get 500 back and a timeout related error message
+    # Also, verify that we get 200 back and the last known good product marked as stale from the fallback method
     for ((n=0; n<3; n++))
     do
-        assertCurl 500 "curl -k https://$HOST:$PORT/product-composite/$PROD_ID_REVS_RECS?delay=3 $AUTH -s"
-        message=$(echo $RESPONSE | jq -r .message)
-        assertEqual "Did not observe any item or terminal signal within 2000ms" "${message:0:57}"
+        assertCurl 200 "curl -k https://$HOST:$PORT/product-composite/$PROD_ID_REVS_RECS?delay=3 $AUTH -s"
+        assertEqual "product name C" "$(echo "$RESPONSE" | jq -r .name)"
+        assertEqual "true" "$(echo "$RESPONSE" | jq -r .stale)"
     done
 
     # Verify that the circuit breaker is open
@@ -199,11 +199,13 @@ function testCircuitBreaker() {
 
     # Verify that the circuit breaker now is open by running the slow call again, verify it gets 200 back, i.e. fail fast works, and a response from the fallback method.
     assertCurl 200 "curl -k https://$HOST:$PORT/product-composite/$PROD_ID_REVS_RECS?delay=3 $AUTH -s"
-    assertEqual "Fallback product$PROD_ID_REVS_RECS" "$(echo "$RESPONSE" | jq -r .name)"
+    assertEqual "product name C" "$(echo "$RESPONSE" | jq -r .name)"
+    assertEqual "true" "$(echo "$RESPONSE" | jq -r .stale)"
 
-    # Also, verify that the circuit breaker is open by running a normal call, verify it also gets 200 back and a response from the fallback method.
-    assertCurl 200 "curl -k https://$HOST:$PORT/product-composite/$PROD_ID_REVS_RECS $AUTH -s"
-    assertEqual "Fallback product$PROD_ID_REVS_RECS" "$(echo "$RESPONSE" | jq -r .name)"
+    # Also, verify that the circuit breaker is open by running a normal call bypassing the product aggregate cache, verify it also gets 200 back and a response from the fallback method.
+    assertCurl 200 "curl -k https://$HOST:$PORT/product-composite/$PROD_ID_REVS_RECS -H \"Cache-Control: no-cache\" $AUTH -s"
+    assertEqual "product name C" "$(echo "$RESPONSE" | jq -r .name)"
+    assertEqual "true" "$(echo "$RESPONSE" | jq -r .stale)"
 
     # Verify that a 404 (Not Found) error is returned for a non existing productId ($PROD_ID_NOT_FOUND) from the fallback method.
     assertCurl 404 "curl -k https://$HOST:$PORT/product-composite/$PROD_ID_NOT_FOUND $AUTH -s"
@@ -216,12 +218,13 @@ function testCircuitBreaker() {
     # Verify that the circuit breaker is in half open state
     assertEqual "HALF_OPEN" "$($EXEC curl -s http://localhost:${MGM_PORT}/actuator/health | jq -r .components.circuitBreakers.details.product.details.state)"
 
-    # Close the circuit breaker by running three normal calls in a row
+    # Close the circuit breaker by running three normal calls in a row, bypassing the product aggregate cache
     # Also, verify that we get 200 back and a response based on information in the product database
     for ((n=0; n<3; n++))
     do
-        assertCurl 200 "curl -k https://$HOST:$PORT/product-composite/$PROD_ID_REVS_RECS $AUTH -s"
+        assertCurl 200 "curl -k https://$HOST:$PORT/product-composite/$PROD_ID_REVS_RECS -H \"Cache-Control: no-cache\" $AUTH -s"
         assertEqual "product name C" "$(echo "$RESPONSE" | jq -r .name)"
+        assertEqual "false" "$(echo "$RESPONSE" | jq -r .stale)"
     done
 
     # Verify that the circuit breaker is in closed state again
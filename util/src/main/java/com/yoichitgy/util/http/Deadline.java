@@ -0,0 +1,83 @@
+package com.yoichitgy.util.http;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+import com.yoichitgy.api.exceptions.DeadlineExceededException;
+
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+/**
+ * The deadline of a request, kept in the Reactor context.
+ *
+ * Between services the deadline is sent as the remaining time in milliseconds in the X-Deadline-Millis header,
+ * so that it does not depend on the clocks of the services being in sync.
+ */
+public final class Deadline {
+    public static final String HEADER = "X-Deadline-Millis";
+
+    private Deadline() {}
+
+    public static Context put(Context context, Instant deadline) {
+        return context.put(Deadline.class, deadline);
+    }
+
+    public static Optional<Instant> get(ContextView context) {
+        return context.getOrEmpty(Deadline.class);
+    }
+
+    public static Duration remaining(Instant deadline) {
+        return Duration.between(Instant.now(), deadline);
+    }
+
+    /**
+     * @throws DeadlineExceededException if the deadline has passed
+     */
+    public static void check(Instant deadline) {
+        if (!remaining(deadline).isPositive()) {
+            throw new DeadlineExceededException("Deadline exceeded at " + deadline);
+        }
+    }
+
+    /**
+     * Like Mono.fromCallable, but the callable is skipped if the deadline of the request has passed when it is
+     * about to run, e.g. after having waited in the queue of a scheduler.
+     */
+    public static <T> Mono<T> fromCallable(Callable<T> callable) {
+        return Mono.deferContextual(context -> {
+            var deadline = get(context);
+            return Mono.fromCallable(() -> {
+                deadline.ifPresent(Deadline::check);
+                return callable.call();
+            });
+        });
+    }
+
+    /**
+     * Sends the remaining time of the request deadline, if any, with each request of a WebClient.
+     */
+    public static ExchangeFilterFunction propagate() {
+        return (request, next) -> Mono.deferContextual(context -> {
+            var deadline = get(context);
+            if (deadline.isEmpty()) {
+                return next.exchange(request);
+            }
+
+            var remaining = remaining(deadline.get());
+            if (!remaining.isPositive()) {
+                return Mono.error(new DeadlineExceededException("Deadline exceeded before calling " + request.url()));
+            }
+            var requestWithDeadline = ClientRequest.from(request)
+                .headers(h -> h.set(HEADER, String.valueOf(remaining.toMillis())))
+                .build();
+            return next.exchange(requestWithDeadline);
+        });
+    }
+}
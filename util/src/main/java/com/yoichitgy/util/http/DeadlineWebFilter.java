@@ -0,0 +1,83 @@
+package com.yoichitgy.util.http;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Picks up the deadline of a request from the X-Deadline-Millis header, see {@link Deadline}.
+ *
+ * A request whose deadline has already passed is rejected without being processed, and the processing of
+ * a request is cancelled when its deadline passes, since the caller has given up on it by then.
+ * The header is ignored on the paths of app.deadline.excludedPaths, e.g. streaming endpoints that run
+ * as long as their request body.
+ */
+@Component
+public class DeadlineWebFilter implements WebFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(DeadlineWebFilter.class);
+
+    private final List<PathPattern> excludedPaths;
+
+    @Autowired
+    public DeadlineWebFilter(@Value("${app.deadline.excludedPaths:}") List<String> excludedPaths) {
+        this.excludedPaths = excludedPaths.stream().map(PathPatternParser.defaultInstance::parse).toList();
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        var value = exchange.getRequest().getHeaders().getFirst(Deadline.HEADER);
+        if (value == null || isExcluded(exchange)) {
+            return chain.filter(exchange);
+        }
+
+        long remainingMillis;
+        try {
+            remainingMillis = Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            LOG.debug("Ignores an invalid {} header: {}", Deadline.HEADER, value);
+            return chain.filter(exchange);
+        }
+
+        var path = exchange.getRequest().getPath();
+        if (remainingMillis <= 0) {
+            LOG.warn("Rejects {} since its deadline has already passed", path);
+            return respondDeadlineExceeded(exchange);
+        }
+
+        var remaining = Duration.ofMillis(remainingMillis);
+        var deadline = Instant.now().plus(remaining);
+        return chain.filter(exchange)
+            .timeout(remaining, Mono.defer(() -> {
+                LOG.warn("Cancels {} since its deadline of {} ms has passed", path, remainingMillis);
+                return exchange.getResponse().isCommitted()
+                    ? Mono.error(new TimeoutException("Deadline exceeded after the response was committed"))
+                    : respondDeadlineExceeded(exchange);
+            }))
+            .contextWrite(context -> Deadline.put(context, deadline));
+    }
+
+    private boolean isExcluded(ServerWebExchange exchange) {
+        var path = exchange.getRequest().getPath().pathWithinApplication();
+        return excludedPaths.stream().anyMatch(pattern -> pattern.matches(path));
+    }
+
+    private Mono<Void> respondDeadlineExceeded(ServerWebExchange exchange) {
+        exchange.getResponse().setStatusCode(HttpStatus.GATEWAY_TIMEOUT);
+        return exchange.getResponse().setComplete();
+    }
+}
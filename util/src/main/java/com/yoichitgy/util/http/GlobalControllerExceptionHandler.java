@@ -1,8 +1,10 @@
 package com.yoichitgy.util.http;
 
 import com.yoichitgy.api.exceptions.BadRequestException;
+import com.yoichitgy.api.exceptions.DeadlineExceededException;
 import com.yoichitgy.api.exceptions.InvalidInputException;
 import com.yoichitgy.api.exceptions.NotFoundException;
+import com.yoichitgy.api.exceptions.ServiceUnavailableException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +43,22 @@ public class GlobalControllerExceptionHandler {
       return createHttpErrorInfo(HttpStatus.UNPROCESSABLE_ENTITY, request, ex);
     }
 
+    @ResponseStatus(HttpStatus.GATEWAY_TIMEOUT)
+    @ExceptionHandler(DeadlineExceededException.class)
+    public @ResponseBody HttpErrorInfo handleDeadlineExceededException(
+        ServerHttpRequest request, DeadlineExceededException ex
+    ) {
+        return createHttpErrorInfo(HttpStatus.GATEWAY_TIMEOUT, request, ex);
+    }
+
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public @ResponseBody HttpErrorInfo handleServiceUnavailableException(
+        ServerHttpRequest request, ServiceUnavailableException ex
+    ) {
+        return createHttpErrorInfo(HttpStatus.SERVICE_UNAVAILABLE, request, ex);
+    }
+
     private HttpErrorInfo createHttpErrorInfo(
         HttpStatus httpStatus, ServerHttpRequest request, Exception ex
     ) {
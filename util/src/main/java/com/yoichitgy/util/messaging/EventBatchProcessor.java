@@ -0,0 +1,292 @@
+package com.yoichitgy.util.messaging;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import com.yoichitgy.api.event.Event;
+
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Processes a stream of CREATE and DELETE events in batches of up to maxSize events, collected for at most maxWait.
+ * A CREATE_BATCH event is processed as a CREATE event per data item, so its data is created by the same bulk call.
+ *
+ * The events are hashed by key onto a number of lanes. The lanes are processed concurrently, each lane
+ * processes its batches one at a time, so the events of a key stay in order. The number of events queued or
+ * in process per lane is exposed as events.lane.queue.depth, tagged with the name and lane.
+ *
+ * Each lane holds at most laneQueueDepth events. An event for a full lane overflows: it is dead-lettered and
+ * counted by events.lane.overflows, so a slow lane never holds back the events of the other lanes, which waiting for
+ * the lane would do since all lanes share one stream. Since a lane is bounded by its count of events, its batches are
+ * queued without a bound instead of relying on the demand of the batch processing, which bufferTimeout does not
+ * respect when its timer fires.
+ *
+ * A batch is first coalesced into the events with a net effect: the events of a key before its last DELETE
+ * event are dropped, since the DELETE removes whatever they create, and repeated identical CREATE events are
+ * dropped. The DELETE itself is kept, as data of the key may have been created before the batch. The number of
+ * dropped events, i.e. writes saved, is counted by events.coalesced.writes.
+ *
+ * The coalesced batch is split into steps, each step creates the data of its CREATE events with one bulk call and then
+ * deletes the keys of its DELETE events. The events of a key are put in the steps in order, so they are
+ * processed in order, while the events of different keys share steps.
+ *
+ * Events that fail are handed to deadLetter, e.g. to be sent to a dead letter queue, the stream is never terminated
+ * by an error. If a bulk create fails, the data of the step is created one by one, so that only the failing events
+ * are dead-lettered.
+ */
+public class EventBatchProcessor<K, T> {
+    private static final Logger LOG = LoggerFactory.getLogger(EventBatchProcessor.class);
+
+    private final String name;
+    private final Function<List<T>, Publisher<?>> createAll;
+    private final Function<T, Publisher<?>> create;
+    private final Function<K, Publisher<?>> delete;
+    private final BiConsumer<Event<K, T>, Throwable> deadLetter;
+    private final int maxSize;
+    private final Duration maxWait;
+    private final int lanes;
+    private final int laneQueueDepth;
+    private final List<AtomicInteger> laneDepths;
+    private final Counter coalescedWrites;
+    private final Counter laneOverflows;
+
+    record Step<K, T>(List<Event<K, T>> creates, List<K> deletes) {}
+
+    /**
+     * @param name name of the data in log messages and metrics
+     * @param deadLetter takes the events that failed with their error
+     * @param lanes number of lanes processed concurrently
+     * @param laneQueueDepth max number of events queued or in process per lane, the events for a full lane are dead-lettered
+     */
+    public EventBatchProcessor(
+        String name,
+        Function<List<T>, Publisher<?>> createAll,
+        Function<T, Publisher<?>> create,
+        Function<K, Publisher<?>> delete,
+        BiConsumer<Event<K, T>, Throwable> deadLetter,
+        int maxSize,
+        Duration maxWait,
+        int lanes,
+        int laneQueueDepth,
+        MeterRegistry meterRegistry
+    ) {
+        LOG.info("Creates an eventBatchProcessor for {} with maxSize = {}, maxWait = {}, lanes = {}, laneQueueDepth = {}",
+            name, maxSize, maxWait, lanes, laneQueueDepth);
+
+        this.name = name;
+        this.createAll = createAll;
+        this.create = create;
+        this.delete = delete;
+        this.deadLetter = deadLetter;
+        this.maxSize = maxSize;
+        this.maxWait = maxWait;
+        this.lanes = lanes;
+        this.laneQueueDepth = laneQueueDepth;
+        this.laneDepths = IntStream.range(0, lanes).mapToObj(lane -> new AtomicInteger()).toList();
+
+        this.coalescedWrites = Counter.builder("events.coalesced.writes")
+            .tag("name", name)
+            .register(meterRegistry);
+        this.laneOverflows = Counter.builder("events.lane.overflows")
+            .tag("name", name)
+            .register(meterRegistry);
+
+        Gauge.builder("events.lanes", () -> lanes)
+            .tag("name", name)
+            .register(meterRegistry);
+        for (int lane = 0; lane < lanes; lane++) {
+            Gauge.builder("events.lane.queue.depth", laneDepths.get(lane), AtomicInteger::get)
+                .tag("name", name)
+                .tag("lane", String.valueOf(lane))
+                .register(meterRegistry);
+        }
+    }
+
+    public Mono<Void> process(Flux<Event<K, T>> events) {
+        // Every lane takes its events from groupBy right away, either into its bounded queue or to the dead letters,
+        // so groupBy keeps asking for more events while a lane is busy
+        return events
+            .flatMapIterable(this::unbatch)
+            .groupBy(this::lane)
+            .flatMap(
+                lane -> lane
+                    .filter(event -> admit(lane.key(), event))
+                    .bufferTimeout(maxSize, maxWait)
+                    .onBackpressureBuffer()
+                    .concatMap(batch -> processBatch(lane.key(), batch)),
+                lanes
+            )
+            .then();
+    }
+
+    // Counts the event in the lane, or dead-letters it when the lane is full
+    private boolean admit(int lane, Event<K, T> event) {
+        if (tryIncrement(laneDepths.get(lane))) {
+            return true;
+        }
+        laneOverflows.increment();
+        LOG.warn("Dead-letters an event of {} for key {}, lane {} is full", name, event.getKey(), lane);
+        deadLetter(event, new IllegalStateException("Lane " + lane + " of " + name + " is full"));
+        return false;
+    }
+
+    private boolean tryIncrement(AtomicInteger depth) {
+        while (true) {
+            var current = depth.get();
+            if (current >= laneQueueDepth) {
+                return false;
+            }
+            if (depth.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void release(int lane, int events) {
+        laneDepths.get(lane).addAndGet(-events);
+    }
+
+    private List<Event<K, T>> unbatch(Event<K, T> event) {
+        if (event.getEventType() != Event.Type.CREATE_BATCH) {
+            return List.of(event);
+        }
+        if (event.getBatch() == null) {
+            LOG.warn("Skips a CREATE_BATCH event of {} without data for key {}", name, event.getKey());
+            return List.of();
+        }
+        return event.getBatch().stream()
+            .map(data -> new Event<K, T>(Event.Type.CREATE, event.getKey(), data, null, event.getEventCreatedAt()))
+            .toList();
+    }
+
+    private int lane(Event<K, T> event) {
+        return Math.floorMod(Objects.hashCode(event.getKey()), lanes);
+    }
+
+    private Mono<Void> processBatch(int lane, List<Event<K, T>> events) {
+        LOG.info("Process a batch of {} messages in lane {}...", events.size(), lane);
+
+        return Flux.fromIterable(split(coalesce(events)))
+            .concatMap(step -> createAll(step.creates()).then(deleteAll(step.deletes())))
+            .then()
+            .doFinally(signal -> release(lane, events.size()))
+            .doOnSuccess(v -> LOG.info("Batch processing done!"));
+    }
+
+    private Mono<Void> createAll(List<Event<K, T>> events) {
+        if (events.isEmpty()) {
+            return Mono.empty();
+        }
+        var data = events.stream().map(Event::getData).toList();
+        return Mono.defer(() -> Flux.from(createAll.apply(data)).then())
+            .doOnSuccess(v -> LOG.debug("Created {} {}", data.size(), name))
+            .onErrorResume(ex -> {
+                LOG.warn("Failed to create {} {} in bulk: {}, creates them one by one", data.size(), name, ex.getMessage());
+                return Flux.fromIterable(events)
+                    .concatMap(event -> Mono.defer(() -> Flux.from(create.apply(event.getData())).then())
+                        .onErrorResume(e -> {
+                            LOG.warn("Dead-letters {} that could not be created: {}", event.getData(), e.getMessage());
+                            return deadLetter(event, e);
+                        }))
+                    .then();
+            });
+    }
+
+    private Mono<Void> deleteAll(List<K> keys) {
+        return Flux.fromIterable(keys)
+            .concatMap(key -> Mono.defer(() -> Flux.from(delete.apply(key)).then())
+                .onErrorResume(e -> {
+                    LOG.warn("Dead-letters the delete of {} for key {} that failed: {}", name, key, e.getMessage());
+                    return deadLetter(new Event<>(Event.Type.DELETE, key, null), e);
+                }))
+            .then();
+    }
+
+    private Mono<Void> deadLetter(Event<K, T> event, Throwable error) {
+        try {
+            deadLetter.accept(event, error);
+        } catch (RuntimeException ex) {
+            LOG.error("Lost an event of {} for key {} that could not be dead-lettered: {}", name, event.getKey(), ex.toString());
+        }
+        return Mono.empty();
+    }
+
+    private List<Event<K, T>> coalesce(List<Event<K, T>> events) {
+        var lastDeletes = new HashMap<K, Integer>();
+        for (int i = 0; i < events.size(); i++) {
+            if (events.get(i).getEventType() == Event.Type.DELETE) {
+                lastDeletes.put(events.get(i).getKey(), i);
+            }
+        }
+
+        var coalesced = new ArrayList<Event<K, T>>();
+        var created = new HashSet<T>();
+        for (int i = 0; i < events.size(); i++) {
+            var event = events.get(i);
+            var lastDelete = lastDeletes.get(event.getKey());
+            if (lastDelete != null && i < lastDelete) {
+                continue;
+            }
+            if (event.getEventType() == Event.Type.CREATE && !created.add(event.getData())) {
+                continue;
+            }
+            coalesced.add(event);
+        }
+
+        var saved = events.size() - coalesced.size();
+        if (saved > 0) {
+            LOG.debug("Coalesced {} events of {} into {}", events.size(), name, coalesced.size());
+            coalescedWrites.increment(saved);
+        }
+        return coalesced;
+    }
+
+    static <K, T> List<Step<K, T>> split(List<Event<K, T>> events) {
+        var steps = new ArrayList<Step<K, T>>();
+        var lastTypes = new HashMap<K, Event.Type>();
+        var lastSteps = new HashMap<K, Integer>();
+
+        for (var event : events) {
+            var key = event.getKey();
+            var type = event.getEventType();
+            if (type != Event.Type.CREATE && type != Event.Type.DELETE) {
+                LOG.warn("Skips an event of incorrect type: {}, expected a CREATE or DELETE event", type);
+                continue;
+            }
+
+            // A key stays in its step as long as the event type does not change
+            var lastStep = lastSteps.get(key);
+            var sameType = type == lastTypes.get(key);
+            int index = lastStep == null ? 0 : sameType ? lastStep : lastStep + 1;
+            while (steps.size() <= index) {
+                steps.add(new Step<>(new ArrayList<>(), new ArrayList<>()));
+            }
+
+            var step = steps.get(index);
+            if (type == Event.Type.CREATE) {
+                step.creates().add(event);
+            } else if (!sameType) {
+                step.deletes().add(key);
+            }
+            lastTypes.put(key, type);
+            lastSteps.put(key, index);
+        }
+        return steps;
+    }
+}
@@ -0,0 +1,105 @@
+package com.yoichitgy.util.messaging;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.yoichitgy.api.event.Event;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.GenericTypeResolver;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.AbstractMessageConverter;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+
+/**
+ * Encodes events in Smile, the binary form of the JSON data model, for bindings with the content type
+ * application/x-event-smile. Field names and repeated values are written once per message and numbers in binary.
+ *
+ * A consumer picks the converter by the contentType header of each message, so JSON and Smile events can be mixed
+ * on a destination while the producers are switched over one binding at a time.
+ *
+ * The payload starts with a schema version byte. Newer readers decode all older versions, a message of a newer
+ * version than SCHEMA_VERSION is rejected. Fields are matched by name and unknown fields are ignored as in JSON,
+ * so adding a field does not require a new version, while removing or changing the meaning of one does.
+ */
+@Component
+public class SmileEventMessageConverter extends AbstractMessageConverter {
+    public static final MimeType MIME_TYPE = MimeType.valueOf("application/x-event-smile");
+    public static final byte SCHEMA_VERSION = 1;
+
+    private final ObjectMapper mapper;
+
+    /**
+     * @param mapperBuilder Spring Boot's builder, so that events are mapped with the same modules and features as JSON
+     */
+    @Autowired
+    public SmileEventMessageConverter(Jackson2ObjectMapperBuilder mapperBuilder) {
+        super(MIME_TYPE);
+        // Messages without a contentType header are left to the JSON converter
+        setStrictContentTypeMatch(true);
+        this.mapper = mapperBuilder.factory(new SmileFactory()).build();
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return Event.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected Object convertToInternal(Object payload, MessageHeaders headers, Object conversionHint) {
+        try {
+            var body = mapper.writeValueAsBytes(payload);
+            var bytes = new byte[body.length + 1];
+            bytes[0] = SCHEMA_VERSION;
+            System.arraycopy(body, 0, bytes, 1, body.length);
+            return bytes;
+        } catch (IOException ex) {
+            throw new MessageConversionException("Failed to encode an event in Smile", ex);
+        }
+    }
+
+    @Override
+    protected Object convertFromInternal(Message<?> message, Class<?> targetClass, Object conversionHint) {
+        if (!(message.getPayload() instanceof byte[] bytes) || bytes.length == 0) {
+            throw new MessageConversionException(message, "Expected a Smile encoded event as payload");
+        }
+        var version = bytes[0];
+        if (version < 1 || version > SCHEMA_VERSION) {
+            throw new MessageConversionException(message, "Unsupported event schema version: " + version);
+        }
+
+        try {
+            return mapper.readValue(bytes, 1, bytes.length - 1, getJavaType(targetClass, conversionHint));
+        } catch (IOException ex) {
+            throw new MessageConversionException(message, "Failed to decode a Smile encoded event", ex);
+        }
+    }
+
+    // The hint carries the generic type of the consumer, e.g. Event<Integer, Review>, so the data is not read as a Map
+    private JavaType getJavaType(Class<?> targetClass, Object conversionHint) {
+        JavaType type;
+        if (conversionHint instanceof MethodParameter parameter) {
+            type = mapper.constructType(
+                GenericTypeResolver.resolveType(parameter.getNestedGenericParameterType(), parameter.getContainingClass())
+            );
+        } else if (conversionHint instanceof Type hint) {
+            type = mapper.constructType(hint);
+        } else {
+            return mapper.constructType(targetClass);
+        }
+
+        // Reactive consumers are hinted with e.g. Flux<Event<Integer, Review>>
+        while (!Event.class.isAssignableFrom(type.getRawClass()) && type.containedTypeCount() == 1) {
+            type = type.containedType(0);
+        }
+        return Event.class.isAssignableFrom(type.getRawClass()) ? type : mapper.constructType(targetClass);
+    }
+}
@@ -0,0 +1,186 @@
+package com.yoichitgy.util.reactor;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * A scheduler for blocking calls, e.g. JDBC or StreamBridge calls, in one of two modes:
+ * <ul>
+ * <li>BOUNDED_ELASTIC: a bounded number of platform threads, tasks that do not fit in the task queue are rejected</li>
+ * <li>VIRTUAL_THREADS: one virtual thread per task, at most maxConcurrency tasks are handed to threads at a time,
+ * the others wait in a queue without a thread. Virtual threads require Java 21, the mode fails on start without.</li>
+ * </ul>
+ *
+ * Both modes record the time tasks wait before they run, scheduler.queue.wait, and the number of running tasks,
+ * scheduler.active.tasks, tagged with the name of the scheduler. Only tasks without a delay are supported.
+ */
+public class BlockingScheduler implements Scheduler {
+    public enum Mode { BOUNDED_ELASTIC, VIRTUAL_THREADS }
+
+    private final Scheduler delegate;
+    private final Timer queueWait;
+    private final AtomicInteger active = new AtomicInteger();
+
+    private BlockingScheduler(String name, Scheduler delegate, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.queueWait = Timer.builder("scheduler.queue.wait")
+            .tag("name", name)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry);
+        Gauge.builder("scheduler.active.tasks", active, AtomicInteger::get)
+            .tag("name", name)
+            .register(meterRegistry);
+    }
+
+    /**
+     * @param threadPoolSize the number of threads in the BOUNDED_ELASTIC mode
+     * @param taskQueueSize the max number of queued tasks in the BOUNDED_ELASTIC mode
+     * @param maxConcurrency the max number of running tasks in the VIRTUAL_THREADS mode
+     */
+    public static Scheduler create(
+        Mode mode,
+        String name,
+        int threadPoolSize,
+        int taskQueueSize,
+        int maxConcurrency,
+        MeterRegistry meterRegistry
+    ) {
+        return switch (mode) {
+            case BOUNDED_ELASTIC -> new BlockingScheduler(
+                name,
+                Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, name),
+                meterRegistry
+            );
+            case VIRTUAL_THREADS -> new BlockingScheduler(
+                name,
+                Schedulers.fromExecutor(new PermitExecutor(newVirtualThreadPerTaskExecutor(name), maxConcurrency)),
+                meterRegistry
+            );
+        };
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+        try {
+            // Looked up by reflection as long as the sources target a Java version without virtual threads
+            var method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)method.invoke(null);
+        } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException e) {
+            // A thread per task without virtual threads would park a platform thread per waiting call
+            throw new IllegalStateException("The scheduler " + name + " needs virtual threads, i.e. Java 21, but runs on Java "
+                + Runtime.version().feature() + ", use the mode bounded-elastic instead", e);
+        }
+    }
+
+    /**
+     * Hands at most maxConcurrency tasks at a time to the executor, the other tasks are queued until a running
+     * task completes, so that waiting tasks do not hold a thread.
+     */
+    static class PermitExecutor implements Executor {
+        private final Executor executor;
+        private final Semaphore permits;
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+        PermitExecutor(Executor executor, int maxConcurrency) {
+            this.executor = executor;
+            this.permits = new Semaphore(maxConcurrency);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            queue.add(task);
+            drain();
+        }
+
+        private void drain() {
+            // Checks the queue again after taking a permit, a task added meanwhile is run by its own drain
+            while (!queue.isEmpty() && permits.tryAcquire()) {
+                var task = queue.poll();
+                if (task == null) {
+                    permits.release();
+                    continue;
+                }
+                try {
+                    executor.execute(() -> {
+                        try {
+                            task.run();
+                        } finally {
+                            permits.release();
+                            drain();
+                        }
+                    });
+                } catch (RuntimeException ex) {
+                    permits.release();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    @Override
+    public Disposable schedule(Runnable task) {
+        return delegate.schedule(instrument(task));
+    }
+
+    @Override
+    public Worker createWorker() {
+        var worker = delegate.createWorker();
+        return new Worker() {
+            @Override
+            public Disposable schedule(Runnable task) {
+                return worker.schedule(instrument(task));
+            }
+
+            @Override
+            public void dispose() {
+                worker.dispose();
+            }
+
+            @Override
+            public boolean isDisposed() {
+                return worker.isDisposed();
+            }
+        };
+    }
+
+    @Override
+    public void start() {
+        delegate.start();
+    }
+
+    @Override
+    public void dispose() {
+        delegate.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return delegate.isDisposed();
+    }
+
+    private Runnable instrument(Runnable task) {
+        var scheduledAt = System.nanoTime();
+        return () -> {
+            queueWait.record(System.nanoTime() - scheduledAt, TimeUnit.NANOSECONDS);
+            active.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                active.decrementAndGet();
+            }
+        };
+    }
+}
@@ -0,0 +1,147 @@
+package com.yoichitgy.util.messaging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import com.yoichitgy.api.event.Event;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class EventBatchProcessorTests {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Map<Event<Integer, String>, Throwable> deadLetters = new ConcurrentHashMap<>();
+
+    @Test
+    void slowBatchDoesNotTerminateStream() {
+        var created = new AtomicInteger();
+        var calls = new AtomicInteger();
+        // The first batch is slow while events keep arriving one by one, so the timer of bufferTimeout
+        // fires many times more than the batch processing has asked for
+        Function<List<String>, Publisher<?>> createAll = data -> Mono.delay(Duration.ofMillis(calls.getAndIncrement() == 0 ? 500 : 0))
+            .doOnNext(tick -> created.addAndGet(data.size()));
+        var processor = createProcessor(createAll, 2, Duration.ofMillis(1), 1, 200);
+
+        var events = Flux.range(1, 200)
+            .delayElements(Duration.ofMillis(1))
+            .map(i -> new Event<Integer, String>(Event.Type.CREATE, i, "data " + i));
+        processor.process(events).block(Duration.ofSeconds(30));
+
+        assertEquals(200, created.get());
+        assertTrue(deadLetters.isEmpty());
+    }
+
+    @Test
+    void lanesKeepOrderOfKeys() {
+        var lanes = 4;
+        // Deep enough for all events of a lane, so none overflow
+        var laneQueueDepth = 200;
+        var created = new ConcurrentHashMap<Integer, List<Integer>>();
+        var maxDepth = new AtomicInteger();
+        // Batches take a random time, so that the lanes run ahead of each other
+        Function<List<String>, Publisher<?>> createAll = data -> Mono.delay(Duration.ofMillis(ThreadLocalRandom.current().nextInt(3)))
+            .doOnNext(tick -> {
+                IntStream.range(0, lanes).forEach(lane -> maxDepth.accumulateAndGet((int)laneDepth(lane), Math::max));
+                data.forEach(d -> {
+                    var parts = d.split(":");
+                    created.computeIfAbsent(Integer.valueOf(parts[0]), key -> new CopyOnWriteArrayList<>())
+                        .add(Integer.valueOf(parts[1]));
+                });
+            });
+        var processor = createProcessor(createAll, 5, Duration.ofMillis(2), lanes, laneQueueDepth);
+        assertEquals(4.0, meterRegistry.get("events.lanes").gauge().value());
+
+        // 50 events for each of 10 keys, interleaved
+        var events = Flux.range(0, 500)
+            .map(i -> new Event<Integer, String>(Event.Type.CREATE, i % 10, i % 10 + ":" + i / 10));
+        processor.process(events).block(Duration.ofSeconds(30));
+
+        assertEquals(10, created.size());
+        var inOrder = IntStream.range(0, 50).boxed().toList();
+        created.forEach((key, sequence) -> assertEquals(inOrder, sequence, "Events of key " + key));
+        assertTrue(maxDepth.get() > 0 && maxDepth.get() <= laneQueueDepth, "Max lane depth " + maxDepth.get());
+        assertTrue(deadLetters.isEmpty());
+    }
+
+    @Test
+    void fullLaneDoesNotHoldBackOtherLanes() {
+        var created = new CopyOnWriteArrayList<String>();
+        var release = Sinks.empty();
+        // The batches of key 0, in lane 0, wait until released, key 1 is in lane 1
+        Function<List<String>, Publisher<?>> createAll = data -> (data.get(0).startsWith("0:") ? release.asMono() : Mono.empty())
+            .then(Mono.fromRunnable(() -> created.addAll(data)));
+        var processor = createProcessor(createAll, 5, Duration.ofMillis(1), 2, 5);
+
+        var events = Flux.concat(
+            Flux.range(0, 20).map(i -> new Event<Integer, String>(Event.Type.CREATE, 0, "0:" + i)),
+            Flux.range(0, 5).map(i -> new Event<Integer, String>(Event.Type.CREATE, 1, "1:" + i))
+        );
+        var done = processor.process(events).toFuture();
+
+        // Lane 1 is processed while lane 0 holds its first 5 events, the other 15 overflow
+        var deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (created.size() < 5 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertEquals(List.of("1:0", "1:1", "1:2", "1:3", "1:4"), created);
+        assertEquals(15, deadLetters.size());
+        assertEquals(15.0, meterRegistry.get("events.lane.overflows").counter().count());
+
+        release.tryEmitEmpty();
+        done.join();
+        assertEquals(10, created.size());
+        assertEquals(List.of("0:0", "0:1", "0:2", "0:3", "0:4"), created.subList(5, 10));
+    }
+
+    @Test
+    void failedEventsAreDeadLettered() {
+        var created = new CopyOnWriteArrayList<String>();
+        // Bulk creates fail if the batch holds "bad", which then fails on its own too
+        Function<List<String>, Publisher<?>> createAll = data -> data.contains("bad")
+            ? Mono.error(new IllegalArgumentException("Invalid data"))
+            : Mono.fromRunnable(() -> created.addAll(data));
+        var processor = createProcessor(createAll, 10, Duration.ofMillis(10), 1, 10);
+
+        var events = Flux.just("a", "bad", "b")
+            .map(data -> new Event<Integer, String>(Event.Type.CREATE, 1, data));
+        processor.process(events).block(Duration.ofSeconds(10));
+
+        assertEquals(List.of("a", "b"), created);
+        assertEquals(1, deadLetters.size());
+        var deadLetter = deadLetters.entrySet().iterator().next();
+        assertEquals("bad", deadLetter.getKey().getData());
+        assertTrue(deadLetter.getValue() instanceof IllegalArgumentException);
+    }
+
+    private double laneDepth(int lane) {
+        return meterRegistry.get("events.lane.queue.depth").tag("lane", String.valueOf(lane)).gauge().value();
+    }
+
+    private EventBatchProcessor<Integer, String> createProcessor(
+        Function<List<String>, Publisher<?>> createAll,
+        int maxSize,
+        Duration maxWait,
+        int lanes,
+        int laneQueueDepth
+    ) {
+        return new EventBatchProcessor<>(
+            "data", createAll, data -> createAll.apply(List.of(data)), key -> Mono.empty(), deadLetters::put,
+            maxSize, maxWait, lanes, laneQueueDepth, meterRegistry
+        );
+    }
+}
@@ -0,0 +1,56 @@
+package com.yoichitgy.util.reactor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class BlockingSchedulerTests {
+    @Test
+    void permitExecutorRunsAtMostMaxConcurrencyTasks() throws InterruptedException {
+        var threads = Executors.newCachedThreadPool();
+        var executor = new BlockingScheduler.PermitExecutor(threads, 2);
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+
+        // The tasks are submitted at once, only two of them are handed to the thread pool at a time
+        var done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(5);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+        threads.shutdown();
+    }
+
+    @Test
+    void virtualThreadsFailWithoutJava21() {
+        assumeTrue(Runtime.version().feature() < 21);
+        var ex = assertThrows(IllegalStateException.class, () -> BlockingScheduler.create(
+            BlockingScheduler.Mode.VIRTUAL_THREADS, "test", 1, 1, 2, new SimpleMeterRegistry()));
+        assertTrue(ex.getMessage().contains("Java 21"), ex.getMessage());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}